@@ -3,6 +3,8 @@
 * It stores the location of a cell as either a reference string ("A1") or as numerical coordinates (x,y).
  */
 public class CellEntry  implements Index2D {
+    public static final long INVALID = -1;// The key of an invalid reference
+    private static final int MAX_LETTERS = 6, MAX_DIGITS = 9;// Longer references would overflow an int
     private String _data;
     private int x, y;
 
@@ -13,8 +15,8 @@ public class CellEntry  implements Index2D {
      * @param y The row index.
      */
     public CellEntry(int x, int y) {
-        if(x<0 | y<0 | x>= Ex2Utils.ABC.length) {_data = "ERROR!";}
-        else {_data = Ex2Utils.ABC[x]+y;}// Convert (x, y) to cell reference
+        if(x<0 | y<0) {_data = "ERROR!";}
+        else {_data = name(x, y);}// Convert (x, y) to cell reference
         init();
     }
 
@@ -35,18 +37,113 @@ public class CellEntry  implements Index2D {
      */
     private void init() {
         x = -1; y= -1;
-       if(_data!=null && _data.length()>=2) {
-           _data = _data.toUpperCase();
-            String s1 = _data.substring(0,1);
-            String s2 = _data.substring(1);
-            Integer yy = Ex2Sheet.getInteger(s2);
-            if(yy!=null) {y=yy;}
-            if(y>=0) {
-                x = s1.charAt(0) - 'A';// Convert letter to index
-                if(x<0 | x>25) {x=-1;}// Invalid column
-          }
-       }
-       if(x==-1) {_data=null; y=-1;}// invalid
+        long key = parse(_data);
+        if(key != INVALID) {
+            _data = _data.toUpperCase();
+            x = keyX(key);
+            y = keyY(key);
+        }
+        if(x==-1) {_data=null; y=-1;}// invalid
+    }
+
+    /**
+     * Packs the coordinates of a cell into a single key (the column in the high 32 bits, the row in the low 32 bits).
+     * @param x The column index.
+     * @param y The row index.
+     * @return The key of the cell.
+     */
+    public static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * @param key The key of a cell.
+     * @return The column index of the cell.
+     */
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @param key The key of a cell.
+     * @return The row index of the cell.
+     */
+    public static int keyY(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Parses a cell reference such as "A1", "ab12" or "ZZ100000" (case insensitive).
+     * @param s The reference.
+     * @return The key of the cell, or INVALID if it is not a cell reference.
+     */
+    public static long parse(String s) {
+        if (s == null) {
+            return INVALID;
+        }
+        return parse(s, 0, s.length());
+    }
+
+    /**
+     * Parses a cell reference (one or more letters followed by one or more digits) from a part of a string,
+     * without creating any object.
+     * @param s The string.
+     * @param from The first char of the reference.
+     * @param to The end of the reference (exclusive).
+     * @return The key of the cell, or INVALID if the part is not a cell reference.
+     */
+    public static long parse(CharSequence s, int from, int to) {
+        int i = from, x = 0, y = 0;
+        while (i < to && letter(s.charAt(i)) != -1 && i - from < MAX_LETTERS) {
+            x = x * 26 + letter(s.charAt(i)) + 1;// Bijective base 26: A..Z, AA..AZ, BA...
+            i++;
+        }
+        int digits = i;
+        while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9' && i - digits < MAX_DIGITS) {
+            y = y * 10 + (s.charAt(i) - '0');
+            i++;
+        }
+        if (digits == from || i == digits || i != to) {
+            return INVALID;
+        }
+        return key(x - 1, y);
+    }
+
+    /**
+     * @param c A char.
+     * @return The index of the char in the alphabet (case insensitive), -1 if it is not a letter.
+     */
+    static int letter(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a column index into its name: 0 is "A", 25 is "Z", 26 is "AA" and so on.
+     * @param x The column index.
+     * @return The name of the column.
+     */
+    public static String columnName(int x) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = x + 1; n > 0; n = (n - 1) / 26) {
+            sb.append((char) ('A' + (n - 1) % 26));
+        }
+        return sb.reverse().toString();
+    }
+
+    /**
+     * Converts the coordinates of a cell into its reference (only needed for display).
+     * @param x The column index.
+     * @param y The row index.
+     * @return The reference of the cell, such as "AB12".
+     */
+    public static String name(int x, int y) {
+        return columnName(x) + y;
     }
 
     /**
@@ -56,7 +153,7 @@ public class CellEntry  implements Index2D {
     public String toCell() {
         String ans = null;
         if(x>=0 && y>=0) {
-            ans = Ex2Utils.ABC[x]+y;
+            ans = name(x, y);
         }
         return ans;
     }
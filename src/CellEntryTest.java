@@ -21,4 +21,30 @@ class CellEntryTest {
         assertEquals(10, cell.getY());
         assertEquals("F10", cell.toCell());
     }
+
+    @Test
+    void testMultiLetterColumns() {
+        cell = new CellEntry("aa123456");
+        assertEquals(26, cell.getX());
+        assertEquals(123456, cell.getY());
+        assertEquals("AA123456", cell.toString());
+        assertEquals(701, new CellEntry("ZZ1").getX());
+        assertEquals(702, new CellEntry("AAA1").getX());
+        assertEquals("ZZ1", new CellEntry(701, 1).toCell());
+        assertEquals("M3", new CellEntry(12, 3).toCell());
+        assertFalse(new CellEntry("A").isValid());
+        assertFalse(new CellEntry("1A").isValid());
+        assertFalse(new CellEntry("A1B").isValid());
+    }
+
+    @Test
+    void testKey() {
+        long key = CellEntry.parse("AB17");
+        assertEquals(27, CellEntry.keyX(key));
+        assertEquals(17, CellEntry.keyY(key));
+        assertEquals(key, CellEntry.key(27, 17));
+        assertEquals(key, CellEntry.parse("=ab17+1", 1, 5));
+        assertEquals(CellEntry.INVALID, CellEntry.parse("A12345678901"));
+        assertEquals("AB17", CellEntry.name(27, 17));
+    }
 }
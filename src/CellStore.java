@@ -0,0 +1,116 @@
+/**
+ * This class stores the cells of a spreadsheet sparsely.
+ * Every column is split into chunks of CHUNK rows, a chunk is allocated when a cell in it is first written
+ * and dropped again when its last cell is emptied, so empty regions of the sheet cost no cell objects at all.
+ * The chunks are kept in the order of the cell indexes (column by column), so the cells are iterated in that order.
+ */
+public class CellStore {
+    public static final int CHUNK = 256;// The number of rows in a chunk
+    private final int width, height;
+    private final int chunksPerColumn;
+    private final SCell[][] chunks;
+    private final int[] used;// The number of non empty cells in each chunk
+    private int size = 0;
+
+    /**
+     * Creates an empty cell store.
+     *
+     * @param width  The number of columns.
+     * @param height The number of rows.
+     */
+    public CellStore(int width, int height) {
+        this.width = width;
+        this.height = height;
+        chunksPerColumn = (height - 1) / CHUNK + 1;// The rounded up number of chunks (height + CHUNK - 1 may overflow)
+        chunks = new SCell[width * chunksPerColumn][];
+        used = new int[chunks.length];
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return The number of non empty cells.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a cell.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @return The cell, or null if the cell is empty.
+     */
+    public SCell get(int x, int y) {
+        SCell[] chunk = chunks[x * chunksPerColumn + y / CHUNK];
+        if (chunk == null) {
+            return null;
+        }
+        return chunk[y % CHUNK];
+    }
+
+    /**
+     * Sets (or empties) a cell.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @param c The new cell, null or a cell without data empties it.
+     */
+    public void set(int x, int y, SCell c) {
+        int k = x * chunksPerColumn + y / CHUNK;
+        if (c != null && (c.getData() == null || c.getData().isEmpty())) {
+            c = null;
+        }
+        if (chunks[k] == null) {
+            if (c == null) {
+                return;
+            }
+            chunks[k] = new SCell[Math.min(CHUNK, height - (y / CHUNK) * CHUNK)];
+        }
+        SCell old = chunks[k][y % CHUNK];
+        chunks[k][y % CHUNK] = c;
+        if (old == null && c != null) {
+            used[k]++;
+            size++;
+        } else if (old != null && c == null) {
+            used[k]--;
+            size--;
+            if (used[k] == 0) {
+                chunks[k] = null;// The last cell of the chunk was emptied
+            }
+        }
+    }
+
+    /**
+     * @return The indexes (x * height + y) of all the non empty cells, in increasing order.
+     */
+    public int[] indexes() {
+        int[] ans = new int[size];
+        int n = 0;
+        for (int k = 0; k < chunks.length; k = k + 1) {
+            SCell[] chunk = chunks[k];
+            if (chunk != null) {
+                int first = (k / chunksPerColumn) * height + (k % chunksPerColumn) * CHUNK;
+                for (int i = 0; i < chunk.length; i = i + 1) {
+                    if (chunk[i] != null) {
+                        ans[n++] = first + i;
+                    }
+                }
+            }
+        }
+        return ans;
+    }
+}
@@ -0,0 +1,39 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CellStoreTest {
+    private CellStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new CellStore(3, 600);// 3 chunks per column, the last one shorter
+    }
+
+    @Test
+    void testSetAndGet() {
+        assertNull(store.get(1, 300));
+        store.set(1, 300, new SCell("5"));
+        store.set(2, 599, new SCell("=A0"));
+        assertEquals("5", store.get(1, 300).getData());
+        assertEquals("=A0", store.get(2, 599).getData());
+        assertNull(store.get(1, 301));
+        assertEquals(2, store.size());
+        store.set(1, 300, new SCell(""));// emptied
+        assertNull(store.get(1, 300));
+        assertEquals(1, store.size());
+        store.set(0, 0, null);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void testIndexes() {
+        store.set(2, 10, new SCell("a"));
+        store.set(0, 599, new SCell("b"));
+        store.set(0, 3, new SCell("c"));
+        store.set(1, 256, new SCell("d"));
+        assertArrayEquals(new int[]{3, 599, 600 + 256, 1200 + 10}, store.indexes());
+        store.set(1, 256, new SCell(""));
+        assertArrayEquals(new int[]{3, 599, 1200 + 10}, store.indexes());
+    }
+}
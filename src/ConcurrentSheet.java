@@ -0,0 +1,414 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a thread safe spreadsheet: many threads may read it while other threads edit it.
+ * The edits are applied one at a time (under a single writer lock) to an Ex2Sheet, which recalculates the affected cells,
+ * and then publish a new immutable SheetSnapshot (only the tiles of the recalculated cells are copied).
+ * The reads (value, eval, get, save) use the last published snapshot without any locking, so a reader never sees
+ * a half computed state: all the values it reads from one snapshot (see snapshot()) come from the same edit.
+ * Cells returned by get are copies, changing them does not change this sheet (use set).
+ * setAsync returns at once and recalculates in the background, the edits queued meanwhile are recalculated together
+ * (in background mode set does the same, so a caller which only knows the Sheet interface, e.g. Ex2GUI, never waits).
+ */
+public class ConcurrentSheet implements Sheet {
+    private final ReentrantLock writer = new ReentrantLock();// Held by the thread which edits the sheet
+    private final Ex2Sheet sheet;// Only used while holding the writer lock
+    private volatile SheetSnapshot snapshot;
+    private final Object queue = new Object();// Guards the fields below
+    private LinkedHashMap<Integer, String> queued = new LinkedHashMap<>();// The edits waiting for a background recalculation (by cell index)
+    private ArrayList<CompletableFuture<SheetSnapshot>> waiting = new ArrayList<>();
+    private boolean draining = false;// True while a background task applies the queued edits
+    private Executor executor = ForkJoinPool.commonPool();
+    private volatile boolean background = false;// True if set queues the edit (see setBackground)
+
+    /**
+     * Creates an empty thread safe spreadsheet.
+     *
+     * @param x The number of columns.
+     * @param y The number of rows.
+     */
+    public ConcurrentSheet(int x, int y) {
+        sheet = new Ex2Sheet(x, y);
+        snapshot = SheetSnapshot.of(sheet);
+    }
+
+    /**
+     * Creates a thread safe spreadsheet over the cells of a sheet, e.g. a loaded one.
+     *
+     * @param sheet The sheet, it must not be used any more other than through this sheet.
+     */
+    public ConcurrentSheet(Ex2Sheet sheet) {
+        this.sheet = sheet;
+        snapshot = SheetSnapshot.of(sheet);
+    }
+
+    /**
+     * @return The last published snapshot, all the reads from it are consistent with each other.
+     */
+    public SheetSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Creates a what-if branch of this sheet, in O(1): the branch shares all the cells of the current snapshot,
+     * and each of its edits copies only the tiles of the cells it changes (see SheetBranch).
+     *
+     * @return A new branch, later edits of this sheet do not change it (and its edits do not change this sheet).
+     */
+    public SheetBranch branch() {
+        return new SheetBranch(this, snapshot);
+    }
+
+    /**
+     * Evaluates a branch: a snapshot of this sheet's cells with other data, and some more edits.
+     * The differences are applied to the sheet (as one batch), the recalculated cells are copied into a snapshot
+     * which shares all the other tiles with the current snapshot of this sheet, and then the differences are undone.
+     * The published snapshot of this sheet is not changed.
+     * Every call applies and undoes all the differences of the branch from this sheet, not only the new edits,
+     * so it takes time in proportion to how far the branch diverged, and holds the writer lock of this sheet meanwhile.
+     *
+     * @param target The data of the branch (only its data is used, the values are computed again).
+     * @param edited The coordinates of the edited cells, 2 ints {x, y} per cell.
+     * @param cells  The new data of the edited cells.
+     * @return The snapshot of the branch after the edits.
+     * @throws IllegalArgumentException If an edited cell is out of the sheet (then nothing is changed).
+     */
+    SheetSnapshot evaluate(SheetSnapshot target, int[] edited, String[] cells) {
+        check(edited);// Before the sheet is changed
+        writer.lock();
+        SheetSnapshot base = snapshot;
+        int[] changed = new int[0];
+        try {
+            int[] diff = base.diff(target);
+            changed = RefLexer.concat(diff, edited);// Known before any cell is set, so a failed apply is undone in full
+            apply(diff, target, edited, cells);
+            return base.with(sheet, sheet.dependents(changed));
+        } finally {
+            revert(base, changed);
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Computes the dependency depth of the cells of a branch (see evaluate, it costs as much).
+     *
+     * @param target The data of the branch.
+     * @return The depth of each cell, as depth() of a sheet holding this data.
+     */
+    int[][] depth(SheetSnapshot target) {
+        writer.lock();
+        SheetSnapshot base = snapshot;
+        int[] changed = new int[0];
+        try {
+            changed = base.diff(target);
+            apply(changed, target, new int[0], new String[0]);
+            return sheet.depth();
+        } finally {
+            revert(base, changed);
+            writer.unlock();
+        }
+    }
+
+    private void apply(int[] diff, SheetSnapshot target, int[] edited, String[] cells) {// Only while holding the writer lock
+        sheet.begin();
+        try {
+            for (int i = 0; i < diff.length; i = i + 2) {
+                sheet.set(diff[i], diff[i + 1], target.data(diff[i], diff[i + 1]));
+            }
+            for (int i = 0; i < cells.length; i = i + 1) {
+                sheet.set(edited[2 * i], edited[2 * i + 1], cells[i]);
+            }
+        } finally {
+            sheet.commit();
+        }
+    }
+
+    private void revert(SheetSnapshot base, int[] changed) {// Back to the published state
+        sheet.begin();
+        try {
+            for (int i = 0; i < changed.length; i = i + 2) {
+                sheet.set(changed[i], changed[i + 1], base.data(changed[i], changed[i + 1]));
+            }
+        } finally {
+            sheet.commit();
+        }
+    }
+
+    @Override
+    public boolean isIn(int x, int y) {
+        return x >= 0 && y >= 0 && x < width() && y < height();
+    }
+
+    @Override
+    public int width() {
+        return snapshot.width();
+    }
+
+    @Override
+    public int height() {
+        return snapshot.height();
+    }
+
+    /**
+     * Sets a cell, recalculates the cells depending on it and publishes the new values.
+     * In background mode the edit is only queued, as by setAsync, and the new values are published later.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @param c The value to set in the cell.
+     * @throws IllegalArgumentException If the cell is out of the sheet.
+     */
+    @Override
+    public void set(int x, int y, String c) {
+        check(new int[]{x, y});
+        if (background) {
+            setAsync(x, y, c);
+            return;
+        }
+        writer.lock();
+        try {
+            sheet.set(x, y, c);
+        } finally {
+            try {
+                snapshot = snapshot.with(sheet, sheet.dependents(x, y));// Also after a failed edit, so the readers see the cells the sheet holds
+            } finally {
+                writer.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sets several cells as one edit: the cells are recalculated once, and readers see either none or all of the changes.
+     *
+     * @param xs    The column indexes.
+     * @param ys    The row indexes.
+     * @param cells The values to set in the cells.
+     * @throws IllegalArgumentException If a cell is out of the sheet (then no cell is changed).
+     * If setting a cell fails otherwise, the cells set before it are kept and published, and the error is thrown.
+     */
+    public void setAll(int[] xs, int[] ys, String[] cells) {
+        if (xs.length != cells.length || ys.length != cells.length) {
+            throw new IllegalArgumentException("setAll() needs one column and one row per cell");
+        }
+        int[] edited = new int[2 * cells.length];
+        for (int i = 0; i < cells.length; i = i + 1) {
+            edited[2 * i] = xs[i];
+            edited[2 * i + 1] = ys[i];
+        }
+        check(edited);// Before the sheet is changed, so a bad edit can not leave it in the middle of a batch
+        writer.lock();
+        try {
+            sheet.begin();
+            try {
+                for (int i = 0; i < cells.length; i = i + 1) {
+                    sheet.set(xs[i], ys[i], cells[i]);
+                }
+            } finally {
+                sheet.commit();
+            }
+        } finally {
+            try {
+                snapshot = snapshot.with(sheet, sheet.dependents(edited));// Also after a failed edit (with the edits applied before it)
+            } finally {
+                writer.unlock();
+            }
+        }
+    }
+
+    private void check(int[] cells) {// The coordinates of the cells, 2 ints {x, y} per cell
+        for (int i = 0; i < cells.length; i = i + 2) {
+            if (!isIn(cells[i], cells[i + 1])) {
+                throw new IllegalArgumentException("Cell: " + cells[i] + "," + cells[i + 1] + " is out of the sheet");
+            }
+        }
+    }
+
+    /**
+     * Sets a cell in the background: returns at once, the cell and the cells depending on it are recalculated by the executor.
+     * Until then the readers keep seeing the last published (consistent) values.
+     * The edits queued while a recalculation runs are applied together as one batch when it ends, and an edit of a cell
+     * which is edited again before it was applied is dropped, so stale edits never cost a recalculation of their own.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @param c The value to set in the cell.
+     * @return Completed with the first published snapshot which includes this edit (or a later edit of the same cell).
+     * @throws IllegalArgumentException If the cell is out of the sheet (then nothing is queued).
+     */
+    public CompletableFuture<SheetSnapshot> setAsync(int x, int y, String c) {
+        check(new int[]{x, y});
+        CompletableFuture<SheetSnapshot> ans = new CompletableFuture<>();
+        boolean start;
+        synchronized (queue) {
+            Integer key = x * height() + y;
+            queued.remove(key);// An older edit of this cell is superseded (and the cell keeps its place after the others)
+            queued.put(key, c);
+            waiting.add(ans);
+            start = !draining;
+            draining = true;
+        }
+        if (start) {
+            executor.execute(this::drain);
+        }
+        return ans;
+    }
+
+    /**
+     * Sets the executor of the background recalculations (see setAsync).
+     *
+     * @param executor The executor, ForkJoinPool.commonPool() by default.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the edit mode of this sheet: in background mode set returns at once and the edit is recalculated
+     * by the executor (see setAsync), otherwise set returns after the new values were published.
+     *
+     * @param background True for the background mode.
+     */
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    /**
+     * @return True if this sheet is in background mode.
+     */
+    public boolean isBackground() {
+        return background;
+    }
+
+    private void drain() {// Applies the queued edits, batch after batch, until there are none
+        boolean idle = false;
+        try {
+            while (!idle) {
+                idle = drainBatch();
+            }
+        } finally {
+            if (!idle) {// Stopped by an Error: the next edit (or a new task, if some are still queued) drains again
+                boolean restart;
+                synchronized (queue) {
+                    restart = !queued.isEmpty();
+                    draining = restart;
+                }
+                if (restart) {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+    }
+
+    private boolean drainBatch() {// Applies one batch of queued edits, returns true (and stops draining) if there were none
+        LinkedHashMap<Integer, String> edits;
+        ArrayList<CompletableFuture<SheetSnapshot>> done;
+        synchronized (queue) {
+            if (queued.isEmpty()) {
+                draining = false;
+                return true;
+            }
+            edits = queued;
+            done = waiting;
+            queued = new LinkedHashMap<>();
+            waiting = new ArrayList<>();
+        }
+        int[] xs = new int[edits.size()], ys = new int[edits.size()];
+        String[] cells = new String[edits.size()];
+        int n = 0;
+        for (Map.Entry<Integer, String> e : edits.entrySet()) {
+            xs[n] = e.getKey() / height();
+            ys[n] = e.getKey() % height();
+            cells[n] = e.getValue();
+            n = n + 1;
+        }
+        try {
+            setAll(xs, ys, cells);
+        } catch (RuntimeException | Error e) {
+            for (int i = 0; i < done.size(); i = i + 1) {
+                done.get(i).completeExceptionally(e);
+            }
+            if (e instanceof Error) {
+                throw e;
+            }
+            return false;
+        }
+        SheetSnapshot s = snapshot;
+        for (int i = 0; i < done.size(); i = i + 1) {
+            done.get(i).complete(s);
+        }
+        return false;
+    }
+
+    @Override
+    public Cell get(int x, int y) {
+        return snapshot.get(x, y);
+    }
+
+    @Override
+    public Cell get(String entry) {
+        Cell ans = null;
+        long key = CellEntry.parse(entry);
+        int x = CellEntry.keyX(key), y = CellEntry.keyY(key);
+        if (key != CellEntry.INVALID && isIn(x, y)) {
+            ans = get(x, y);
+        }
+        return ans;
+    }
+
+    @Override
+    public String value(int x, int y) {
+        return snapshot.value(x, y);
+    }
+
+    @Override
+    public String eval(int x, int y) {
+        return snapshot.eval(x, y);
+    }
+
+    /**
+     * Evaluates all the cells again and publishes the new values.
+     */
+    @Override
+    public void eval() {
+        writer.lock();
+        try {
+            sheet.eval();
+            snapshot = SheetSnapshot.of(sheet);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public int[][] depth() {
+        writer.lock();// Uses the dependency graph of the sheet
+        try {
+            return sheet.depth();
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public void save(String fileName) throws IOException {
+        snapshot.save(fileName);
+    }
+
+    @Override
+    public void load(String fileName) throws IOException {
+        writer.lock();
+        try {
+            sheet.load(fileName);
+            snapshot = SheetSnapshot.of(sheet);
+        } finally {
+            writer.unlock();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ConcurrentSheetTest {
+    private ConcurrentSheet sheet;
+
+    @BeforeEach
+    void setUp() {
+        sheet = new ConcurrentSheet(4, 600);// several tiles per column
+    }
+
+    @Test
+    void testSetAndRead() {
+        sheet.set(0, 0, "3");
+        sheet.set(1, 500, "=A0*2");
+        sheet.set(2, 1, "hello");
+        assertEquals("6.0", sheet.value(1, 500));
+        assertEquals("hello", sheet.value(2, 1));
+        assertEquals("", sheet.value(3, 3));
+        assertEquals(Ex2Utils.FORM, sheet.get(1, 500).getType());
+        assertEquals("=A0*2", sheet.get("B500").getData());
+        SheetSnapshot before = sheet.snapshot();
+        sheet.set(0, 0, "4");
+        assertEquals("8.0", sheet.value(1, 500));
+        assertEquals("6.0", before.value(1, 500));// a snapshot never changes
+        sheet.get(0, 0).setData("100");// a copy
+        assertEquals("4.0", sheet.value(0, 0));
+        sheet.setAll(new int[]{0, 3}, new int[]{0, 2}, new String[]{"=D2+1", "1"});
+        assertEquals("4.0", sheet.value(1, 500));
+        assertEquals(2, sheet.depth()[1][500]);
+        assertThrows(IllegalArgumentException.class, () -> sheet.setAll(new int[]{0, 9}, new int[]{0, 0}, new String[]{"5", "1"}));
+        assertThrows(IllegalArgumentException.class, () -> sheet.set(0, 600, "1"));
+        assertEquals("4.0", sheet.value(1, 500));// Nothing was changed
+        sheet.set(3, 2, "2");// And the sheet is not left in a batch
+        assertEquals("6.0", sheet.value(1, 500));
+    }
+
+    @Test
+    void testConsistentReads() throws InterruptedException {
+        sheet.set(0, 0, "0");
+        sheet.set(1, 0, "=A0*2");
+        sheet.set(1, 599, "=B0+A0");
+        AtomicReference<String> error = new AtomicReference<>();
+        AtomicInteger reads = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t = t + 1) {
+            readers[t] = new Thread(() -> {
+                for (int n = 0; n < 2000; n = n + 1) {
+                    SheetSnapshot s = sheet.snapshot();
+                    double a = Double.parseDouble(s.value(0, 0));
+                    double b = Double.parseDouble(s.value(1, 0));
+                    double c = Double.parseDouble(s.value(1, 599));
+                    if (b != 2 * a || c != 3 * a) {
+                        error.set(a + " " + b + " " + c);
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 1; i <= 500; i = i + 1) {
+            sheet.set(0, 0, "" + i);
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertNull(error.get());
+        assertEquals(8000, reads.get());
+        assertEquals("1500.0", sheet.value(1, 599));
+    }
+
+    @Test
+    void testSetAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.execute(() -> {// Holds the executor, so the edits below are queued together
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        sheet.setExecutor(executor);
+        sheet.set(0, 0, "0");
+        sheet.set(1, 0, "=A0*2");
+        CompletableFuture<SheetSnapshot> first = sheet.setAsync(0, 0, "1");
+        CompletableFuture<SheetSnapshot> second = sheet.setAsync(0, 0, "2");// Supersedes the first edit
+        CompletableFuture<SheetSnapshot> third = sheet.setAsync(2, 0, "=B0+1");
+        String before = sheet.value(1, 0);// Not applied yet, the last values are still read
+        boolean pending = !first.isDone();
+        release.countDown();
+        assertEquals("0.0", before);
+        assertTrue(pending);
+        SheetSnapshot s = third.get();
+        assertSame(s, first.get());// One recalculation for all of them
+        assertSame(s, second.get());
+        assertEquals("4.0", s.value(1, 0));
+        assertEquals("5.0", sheet.value(2, 0));
+        assertEquals("2", sheet.get(0, 0).getData());
+        executor.shutdown();
+    }
+
+    @Test
+    void testDrainAfterError() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        ConcurrentSheet failing = new ConcurrentSheet(4, 600) {
+            @Override
+            public void setAll(int[] xs, int[] ys, String[] cells) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new AssertionError("injected");// An Error, not a RuntimeException
+                }
+                super.setAll(xs, ys, cells);
+            }
+        };
+        failing.setExecutor(Runnable::run);// Drains on the calling thread, so the Error reaches the caller
+        assertThrows(AssertionError.class, () -> failing.setAsync(0, 0, "1"));
+        CompletableFuture<SheetSnapshot> next = failing.setAsync(0, 0, "2");// Not blocked by the failed drain
+        assertTrue(next.isDone());
+        assertEquals("2.0", next.get().value(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> failing.setAsync(4, 0, "1"));// Checked before it is queued
+        failing.setBackground(true);
+        failing.set(1, 0, "=A0*3");
+        assertEquals("6.0", failing.value(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> failing.set(0, -1, "1"));
+    }
+
+    @Test
+    void testBackground() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sheet.setExecutor(executor);
+        sheet.setBackground(true);
+        assertTrue(sheet.isBackground());
+        sheet.set(0, 0, "5");
+        String before = sheet.value(0, 0);// Queued, not applied yet
+        CompletableFuture<SheetSnapshot> last = sheet.setAsync(1, 0, "=A0+1");
+        release.countDown();
+        assertEquals("", before);
+        assertEquals("6.0", last.get().value(1, 0));
+        sheet.setBackground(false);
+        sheet.set(0, 0, "7");
+        assertEquals("8.0", sheet.value(1, 0));// Published before set returned
+        executor.shutdown();
+    }
+
+    @Test
+    void testFailedSetAll() {
+        Ex2Sheet engine = new Ex2Sheet(4, 10) {
+            @Override
+            public void set(int x, int y, String s) {
+                if (s.equals("fail")) {
+                    throw new IllegalStateException("injected");
+                }
+                super.set(x, y, s);
+            }
+        };
+        ConcurrentSheet failing = new ConcurrentSheet(engine);
+        failing.set(1, 0, "=A0*2");
+        assertThrows(IllegalStateException.class, () -> failing.setAll(new int[]{0, 2}, new int[]{0, 0}, new String[]{"5", "fail"}));
+        assertEquals("5.0", failing.value(0, 0));// The edit applied before the failure is published with its dependents
+        assertEquals("10.0", failing.value(1, 0));
+        assertEquals("10.0", failing.snapshot().value(1, 0));
+        assertThrows(IllegalStateException.class, () -> failing.set(2, 0, "fail"));
+        failing.set(3, 0, "=B0+1");
+        assertEquals("11.0", failing.value(3, 0));
+    }
+}
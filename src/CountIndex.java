@@ -0,0 +1,86 @@
+/**
+ * This class counts marked cells in rectangles of a spreadsheet (e.g. the cells whose type is not valid in a range).
+ * Every column is split into chunks of CellStore.CHUNK rows: a chunk keeps a bitmap of its marked cells, allocated when
+ * a cell in it is first marked, and the counts of the chunks of a column are kept in a Fenwick (binary indexed) tree.
+ * So marking a cell takes O(log(height)), counting a rectangle takes O(its width * log(height)),
+ * and the cells which were never marked cost no memory.
+ * All the methods are synchronized, cells may be marked by concurrent evaluations.
+ */
+public class CountIndex {
+    private static final int CHUNK = CellStore.CHUNK;// A multiple of 64
+    private final int chunksPerColumn;
+    private final int[] tree;// The Fenwick tree of the chunk counts of each column, chunksPerColumn + 1 ints per column
+    private final long[][] bits;// The bitmap of each chunk (x * chunksPerColumn + y / CHUNK), null while none was marked
+
+    /**
+     * Creates an index without marked cells.
+     *
+     * @param width  The number of columns.
+     * @param height The number of rows.
+     */
+    public CountIndex(int width, int height) {
+        chunksPerColumn = (height - 1) / CHUNK + 1;
+        tree = new int[width * (chunksPerColumn + 1)];
+        bits = new long[width * chunksPerColumn][];
+    }
+
+    /**
+     * Marks or unmarks a cell (a cell should not be marked twice).
+     *
+     * @param x     The column index of the cell.
+     * @param y     The row index of the cell.
+     * @param delta 1 to mark the cell, -1 to unmark it.
+     */
+    public synchronized void add(int x, int y, int delta) {
+        int k = x * chunksPerColumn + y / CHUNK;
+        if (bits[k] == null) {
+            bits[k] = new long[CHUNK / 64];
+        }
+        int r = y % CHUNK;
+        if (delta > 0) {
+            bits[k][r >>> 6] |= 1L << r;
+        } else {
+            bits[k][r >>> 6] &= ~(1L << r);
+        }
+        int column = x * (chunksPerColumn + 1);
+        for (int j = y / CHUNK + 1; j <= chunksPerColumn; j += j & -j) {
+            tree[column + j] += delta;
+        }
+    }
+
+    /**
+     * Counts the marked cells in a rectangle (including both corners).
+     *
+     * @param x1 The first column.
+     * @param y1 The first row.
+     * @param x2 The last column.
+     * @param y2 The last row.
+     * @return The number of marked cells.
+     */
+    public synchronized int count(int x1, int y1, int x2, int y2) {
+        int ans = 0;
+        for (int x = x1; x <= x2 && y1 <= y2; x = x + 1) {
+            ans += prefix(x, y2 + 1) - prefix(x, y1);
+        }
+        return ans;
+    }
+
+    private int prefix(int x, int y) {// The number of marked cells in rows [0, y) of column x
+        int ans = 0;
+        int column = x * (chunksPerColumn + 1);
+        for (int j = y / CHUNK; j > 0; j -= j & -j) {// The whole chunks
+            ans += tree[column + j];
+        }
+        long[] b = y % CHUNK == 0 ? null : bits[x * chunksPerColumn + y / CHUNK];
+        if (b != null) {// The first y % CHUNK rows of the next chunk
+            int r = y % CHUNK;
+            for (int w = 0; w < r >>> 6; w = w + 1) {
+                ans += Long.bitCount(b[w]);
+            }
+            if ((r & 63) != 0) {
+                ans += Long.bitCount(b[r >>> 6] & ((1L << r) - 1));
+            }
+        }
+        return ans;
+    }
+}
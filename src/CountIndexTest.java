@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+class CountIndexTest {
+
+    @Test
+    void testCount() {
+        CountIndex index = new CountIndex(4, 300);
+        index.add(0, 0, 1);
+        index.add(2, 150, 1);
+        index.add(3, 299, 1);
+        assertEquals(3, index.count(0, 0, 3, 299));
+        assertEquals(1, index.count(1, 100, 2, 200));
+        assertEquals(0, index.count(1, 0, 1, 299));
+        assertEquals(2, index.count(2, 150, 3, 299));
+        index.add(2, 150, -1);
+        assertEquals(0, index.count(1, 100, 2, 200));
+        assertEquals(2, index.count(0, 0, 3, 299));
+    }
+
+    @Test
+    void testRandom() {
+        CountIndex index = new CountIndex(3, 1000);// several chunks per column, the last one shorter
+        boolean[][] marked = new boolean[3][1000];
+        Random r = new Random(12);
+        for (int n = 0; n < 3000; n = n + 1) {
+            int x = r.nextInt(3), y = r.nextInt(1000);
+            index.add(x, y, marked[x][y] ? -1 : 1);
+            marked[x][y] = !marked[x][y];
+            int x1 = r.nextInt(3), y1 = r.nextInt(1000);
+            int x2 = x1 + r.nextInt(3 - x1), y2 = y1 + r.nextInt(1000 - y1);
+            int count = 0;
+            for (int i = x1; i <= x2; i = i + 1) {
+                for (int j = y1; j <= y2; j = j + 1) {
+                    count += marked[i][j] ? 1 : 0;
+                }
+            }
+            assertEquals(count, index.count(x1, y1, x2, y2));
+        }
+    }
+}
@@ -0,0 +1,410 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * This class represents the dependency graph of a spreadsheet.
+ * Every cell is identified by an index (see Ex2Sheet), for each cell the graph keeps the cells it depends on (forward edges)
+ * and the cells that depend on it (reverse edges), so an edit only has to recompute the cells that depend on the edited cell.
+ * The edges are kept in pages of PAGE cells which are allocated when a cell in them first gets an edge,
+ * and the scratch space of the traversals grows with the cells they reach, so the cells without edges cost no memory.
+ */
+public class DependencyGraph {
+    public static final int SHIFT = IntStore.SHIFT;
+    public static final int PAGE = IntStore.PAGE;
+    private static final int[] NONE = new int[0];
+    private final int size;
+    private final int[][][] deps;// The cells each cell depends on (in the order they appear in its formula), by page
+    private final IntStore outside;// 1 if the formula also refers to a cell out of the sheet (after all the deps)
+    private final int[][][] users;// The cells depending on each cell (reverse edges), by page
+    private final IntStore userCount;
+    private final IntStore mark;// Scratch space: a cell is marked in the current pass iff mark.get(cell) == stamp
+    private final IntStore pending;// Scratch space: the number of not yet ordered dependencies of a marked cell
+    private int[] queue = new int[16];// Scratch space for the traversals, grows as needed
+    private int stamp = 0;
+
+    /**
+     * Creates an empty dependency graph.
+     *
+     * @param size The number of cells in the sheet.
+     */
+    public DependencyGraph(int size) {
+        this.size = size;
+        deps = new int[size / PAGE + 1][][];
+        outside = new IntStore(size);
+        users = new int[size / PAGE + 1][][];
+        userCount = new IntStore(size);
+        mark = new IntStore(size);
+        pending = new IntStore(size);
+    }
+
+    /**
+     * @return The number of cells in this graph.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replaces the dependencies of a cell, and updates the reverse edges accordingly.
+     *
+     * @param cell    The index of the cell.
+     * @param cells   The indexes of the cells it depends on.
+     * @param outside True if the cell also refers to a cell out of the sheet.
+     */
+    public void setDependencies(int cell, int[] cells, boolean outside) {
+        int[] old = deps(cell);
+        for (int i = 0; i < old.length; i = i + 1) {
+            removeUser(old[i], cell);
+        }
+        put(deps, cell, cells.length == 0 ? NONE : cells);
+        this.outside.set(cell, outside ? 1 : 0);
+        for (int i = 0; i < cells.length; i = i + 1) {
+            addUser(cells[i], cell);
+        }
+    }
+
+    /**
+     * @param cell The index of the cell.
+     * @return The indexes of the cells this cell depends on.
+     */
+    public int[] getDependencies(int cell) {
+        return deps(cell);
+    }
+
+    /**
+     * @param cell The index of the cell.
+     * @return The indexes of the cells which refer to this cell directly.
+     */
+    public int[] getUsers(int cell) {
+        return Arrays.copyOf(entry(users, cell), userCount.get(cell));
+    }
+
+    /**
+     * @param cell The index of the cell.
+     * @return True if the cell refers to a cell out of the sheet.
+     */
+    public boolean hasOutside(int cell) {
+        return outside.get(cell) != 0;
+    }
+
+    /**
+     * Computes all the cells that (directly or indirectly) depend on the given cell, including the cell itself.
+     *
+     * @param cell The index of the edited cell.
+     * @return The indexes of the cell and all its dependents (each appears once).
+     */
+    public int[] dependents(int cell) {
+        return dependents(new int[]{cell}, 1);
+    }
+
+    /**
+     * Computes all the cells that (directly or indirectly) depend on any of the given cells, including the cells themselves.
+     *
+     * @param cells The indexes of the edited cells.
+     * @param n     The number of edited cells (a prefix of cells).
+     * @return The indexes of the cells and all their dependents (each appears once).
+     */
+    public int[] dependents(int[] cells, int n) {
+        int head = 0, tail = 0;
+        stamp++;
+        for (int i = 0; i < n; i = i + 1) {
+            if (mark.get(cells[i]) != stamp) {
+                mark.set(cells[i], stamp);
+                push(tail++, cells[i]);
+            }
+        }
+        while (head < tail) {
+            int c = queue[head++];
+            int[] u = entry(users, c);
+            for (int i = 0; i < userCount.get(c); i = i + 1) {
+                if (mark.get(u[i]) != stamp) {
+                    mark.set(u[i], stamp);
+                    push(tail++, u[i]);
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Computes the cells the given cell (directly or indirectly) depends on, including the cell itself.
+     * The traversal does not continue past the cells rejected by the filter (e.g. cells which are already computed).
+     *
+     * @param cell   The index of the cell.
+     * @param follow The cells to include (and whose dependencies are followed).
+     * @return The indexes of the cell and all its (followed) dependencies (each appears once).
+     */
+    public int[] precedents(int cell, IntPredicate follow) {
+        int head = 0, tail = 0;
+        stamp++;
+        push(tail++, cell);
+        mark.set(cell, stamp);
+        while (head < tail) {
+            int[] d = deps(queue[head++]);
+            for (int i = 0; i < d.length; i = i + 1) {
+                if (mark.get(d[i]) != stamp && follow.test(d[i])) {
+                    mark.set(d[i], stamp);
+                    push(tail++, d[i]);
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Finds the circular dependencies reachable from the given cells (Tarjan's strongly connected components).
+     * Every cycle is a set of cells each of which (indirectly) depends on all the others,
+     * the cells which only depend on a cycle are not part of it. Each cell and edge is visited once: O(cells + edges).
+     *
+     * @param cells The indexes of the cells to start from (e.g. all the non empty cells).
+     * @return The cycles, each one as the indexes of its cells (a cell depending on itself is a cycle of one cell).
+     */
+    public int[][] cycles(int[] cells) {
+        IntStore num = new IntStore(size);// The visit number of each cell (+1), 0 for not visited
+        IntStore low = new IntStore(size);
+        IntStore onStack = new IntStore(size);
+        int[] stack = new int[16];// The cells of the components which are not complete yet
+        int[] path = new int[16];// The DFS path (instead of recursion) and the next edge of each cell on it
+        int[] edge = new int[16];
+        int[][] ans = new int[0][];
+        int visits = 0, top = 0;
+        for (int s = 0; s < cells.length; s = s + 1) {
+            if (num.get(cells[s]) != 0) {
+                continue;
+            }
+            int depth = 0;
+            path[0] = cells[s];
+            edge[0] = 0;
+            visits++;
+            num.set(cells[s], visits);
+            low.set(cells[s], visits);
+            stack = grow(stack, top);
+            stack[top++] = cells[s];
+            onStack.set(cells[s], 1);
+            while (depth >= 0) {
+                int c = path[depth];
+                int[] d = deps(c);
+                if (edge[depth] < d.length) {
+                    int n = d[edge[depth]++];
+                    if (num.get(n) == 0) {// A tree edge, go down
+                        depth++;
+                        path = grow(path, depth);
+                        edge = grow(edge, depth);
+                        path[depth] = n;
+                        edge[depth] = 0;
+                        visits++;
+                        num.set(n, visits);
+                        low.set(n, visits);
+                        stack = grow(stack, top);
+                        stack[top++] = n;
+                        onStack.set(n, 1);
+                    } else if (onStack.get(n) != 0) {
+                        low.set(c, Math.min(low.get(c), num.get(n)));
+                    }
+                    continue;
+                }
+                if (low.get(c) == num.get(c)) {// c is the root of a component, pop it
+                    int from = top;
+                    do {
+                        from--;
+                        onStack.set(stack[from], 0);
+                    } while (stack[from] != c);
+                    if (top - from > 1 || selfLoop(c)) {
+                        ans = Arrays.copyOf(ans, ans.length + 1);
+                        ans[ans.length - 1] = Arrays.copyOfRange(stack, from, top);
+                    }
+                    top = from;
+                }
+                depth--;
+                if (depth >= 0) {
+                    low.set(path[depth], Math.min(low.get(path[depth]), low.get(c)));
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Finds the cycle which contains the given cell, searching only from that cell:
+     * the cells it (indirectly) depends on which also (indirectly) depend on it.
+     *
+     * @param cell The index of the cell.
+     * @return The indexes of the cells of its cycle (including the cell itself), empty if the cell is not in a cycle.
+     */
+    public int[] cycleOf(int cell) {
+        if (deps(cell).length == 0 || userCount.get(cell) == 0) {// Nothing to go around through
+            return NONE;
+        }
+        int[] reach = precedents(cell, c -> true);
+        stamp++;
+        for (int i = 0; i < reach.length; i = i + 1) {
+            mark.set(reach[i], stamp);
+        }
+        int forward = stamp;
+        stamp++;// Now walk back over the dependents which are also precedents
+        int head = 0, tail = 0;
+        push(tail++, cell);
+        mark.set(cell, stamp);
+        while (head < tail) {
+            int c = queue[head++];
+            int[] u = entry(users, c);
+            for (int i = 0; i < userCount.get(c); i = i + 1) {
+                if (mark.get(u[i]) == forward) {
+                    mark.set(u[i], stamp);
+                    push(tail++, u[i]);
+                }
+            }
+        }
+        if (tail == 1 && !selfLoop(cell)) {
+            return NONE;
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    private boolean selfLoop(int cell) {
+        int[] d = deps(cell);
+        for (int i = 0; i < d.length; i = i + 1) {
+            if (d[i] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the dependency depth of the given cells and the order they should be evaluated in (Kahn's algorithm).
+     * The depth of all the other cells is taken as is from the depth array.
+     * A cell is ordered only after all of its dependencies, each cell and edge is visited once: O(cells + edges).
+     * Cells which are part of a circular dependency (or depend on one) are never ordered, they get depth -1
+     * and are placed at the end of the returned order.
+     *
+     * @param cells The indexes of the cells to order.
+     * @param depth The depth of each cell (by the cell index), the depth of the given cells is updated.
+     * @return The given cells in evaluation order.
+     */
+    public int[] order(int[] cells, IntStore depth) {
+        stamp++;
+        for (int i = 0; i < cells.length; i = i + 1) {
+            mark.set(cells[i], stamp);
+            depth.set(cells[i], -1);
+        }
+        int head = 0, tail = 0;
+        for (int i = 0; i < cells.length; i = i + 1) {
+            int c = cells[i];
+            int n = 0;
+            int[] d = deps(c);
+            for (int j = 0; j < d.length; j = j + 1) {
+                if (mark.get(d[j]) == stamp) {
+                    n++;// A dependency which is ordered in this pass
+                }
+            }
+            pending.set(c, n);
+            if (n == 0) {
+                push(tail++, c);
+            }
+        }
+        while (head < tail) {
+            int c = queue[head++];
+            depth.set(c, depthOf(c, depth));
+            int[] u = entry(users, c);
+            for (int i = 0; i < userCount.get(c); i = i + 1) {
+                if (mark.get(u[i]) == stamp) {
+                    pending.set(u[i], pending.get(u[i]) - 1);
+                    if (pending.get(u[i]) == 0) {
+                        push(tail++, u[i]);
+                    }
+                }
+            }
+        }
+        int[] ans = Arrays.copyOf(queue, cells.length);
+        for (int i = 0; i < cells.length; i = i + 1) {// The cells left are in (or depend on) a cycle
+            int c = cells[i];
+            if (pending.get(c) > 0) {
+                ans[tail++] = c;
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the depth of a cell from the depth of its dependencies:
+     * 0 for a cell without dependencies, else 1 + the max depth of its dependencies.
+     * A cell depending on a cell with depth -1 gets -1, a cell referring out of the sheet gets 0.
+     *
+     * @param cell  The index of the cell.
+     * @param depth The depth of each cell.
+     * @return The depth of the cell.
+     */
+    public int depthOf(int cell, IntStore depth) {
+        int ans = 0;
+        int[] d = deps(cell);
+        for (int i = 0; i < d.length; i = i + 1) {
+            int v = depth.get(d[i]);
+            if (v == -1) {
+                return -1;
+            }
+            ans = Math.max(ans, v + 1);
+        }
+        if (outside.get(cell) != 0) {// A reference out of the sheet can not be computed at all
+            ans = 0;
+        }
+        return ans;
+    }
+
+    private void addUser(int cell, int user) {
+        int[] u = entry(users, cell);
+        int n = userCount.get(cell);
+        if (n == u.length) {
+            u = Arrays.copyOf(u, Math.max(4, u.length * 2));
+            put(users, cell, u);
+        }
+        u[n] = user;
+        userCount.set(cell, n + 1);
+    }
+
+    private void removeUser(int cell, int user) {
+        int[] u = entry(users, cell);
+        int n = userCount.get(cell);
+        for (int i = 0; i < n; i = i + 1) {
+            if (u[i] == user) {
+                u[i] = u[n - 1];// Order of the users does not matter
+                userCount.set(cell, n - 1);
+                return;
+            }
+        }
+    }
+
+    private int[] deps(int cell) {
+        return entry(deps, cell);
+    }
+
+    private static int[] entry(int[][][] pages, int cell) {// The edges of a cell, NONE if it has none
+        int[][] page = pages[cell >>> SHIFT];
+        if (page == null || page[cell & (PAGE - 1)] == null) {
+            return NONE;
+        }
+        return page[cell & (PAGE - 1)];
+    }
+
+    private static void put(int[][][] pages, int cell, int[] edges) {
+        if (pages[cell >>> SHIFT] == null) {
+            if (edges == NONE) {
+                return;
+            }
+            pages[cell >>> SHIFT] = new int[PAGE][];
+        }
+        pages[cell >>> SHIFT][cell & (PAGE - 1)] = edges;
+    }
+
+    private void push(int tail, int cell) {// queue[tail] = cell, growing the queue if needed
+        queue = grow(queue, tail);
+        queue[tail] = cell;
+    }
+
+    private static int[] grow(int[] a, int n) {// An array with room for a[n]
+        if (n < a.length) {
+            return a;
+        }
+        return Arrays.copyOf(a, Math.max(16, 2 * a.length));
+    }
+}
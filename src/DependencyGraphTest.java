@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+
+class DependencyGraphTest {
+    private static final int[] ALL = {0, 1, 2, 3, 4, 5};// All the cells of the graph
+    private DependencyGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        graph = new DependencyGraph(6);
+    }
+
+    @Test
+    void testSetDependencies() {
+        graph.setDependencies(1, new int[]{0}, false);
+        graph.setDependencies(2, new int[]{0, 1}, true);
+        assertArrayEquals(new int[]{0, 1}, graph.getDependencies(2));
+        assertTrue(graph.hasOutside(2));
+        assertFalse(graph.hasOutside(1));
+        assertEquals(0, graph.getDependencies(3).length);
+    }
+
+    @Test
+    void testDependents() {
+        graph.setDependencies(1, new int[]{0}, false);
+        graph.setDependencies(2, new int[]{1}, false);
+        graph.setDependencies(3, new int[]{0, 2}, false);
+        int[] d = graph.dependents(0);
+        Arrays.sort(d);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, d);
+        assertArrayEquals(new int[]{4}, graph.dependents(4));
+        graph.setDependencies(2, new int[]{5}, false);// 2 no longer depends on 1
+        d = graph.dependents(1);
+        Arrays.sort(d);
+        assertArrayEquals(new int[]{1}, d);
+        d = graph.dependents(5);
+        Arrays.sort(d);
+        assertArrayEquals(new int[]{2, 3, 5}, d);
+    }
+
+    @Test
+    void testPrecedents() {
+        graph.setDependencies(1, new int[]{0}, false);
+        graph.setDependencies(2, new int[]{1, 4}, false);
+        graph.setDependencies(3, new int[]{2}, false);
+        int[] d = graph.precedents(3, c -> true);
+        Arrays.sort(d);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, d);
+        d = graph.precedents(3, c -> c != 1);// 1 (and so 0) is not followed
+        Arrays.sort(d);
+        assertArrayEquals(new int[]{2, 3, 4}, d);
+        assertArrayEquals(new int[]{0}, graph.precedents(0, c -> true));
+    }
+
+    @Test
+    void testOrder() {
+        graph.setDependencies(0, new int[]{1}, false);
+        graph.setDependencies(1, new int[]{2, 2}, false);
+        graph.setDependencies(3, new int[]{4}, false);
+        graph.setDependencies(4, new int[]{3}, false);// a cycle
+        graph.setDependencies(5, new int[]{0, 4}, false);// depends on a cycle
+        IntStore depth = new IntStore(6);
+        int[] order = graph.order(ALL, depth);
+        assertArrayEquals(new int[]{2, 1, 0, 0, -1, -1}, new int[]{order[0], order[1], order[2], depth.get(2), depth.get(3), depth.get(5)});
+        assertEquals(2, depth.get(0));
+        assertEquals(1, depth.get(1));
+        assertEquals(6, order.length);
+        graph.setDependencies(4, new int[0], true);// breaks the cycle, refers out of the sheet
+        order = graph.order(graph.dependents(4), depth);
+        assertEquals(0, depth.get(4));
+        assertEquals(1, depth.get(3));
+        assertEquals(3, depth.get(5));
+        assertEquals(4, order[0]);
+    }
+
+    @Test
+    void testCycles() {
+        graph.setDependencies(0, new int[]{1}, false);
+        graph.setDependencies(1, new int[]{2}, false);
+        graph.setDependencies(2, new int[]{0}, false);// 0 -> 1 -> 2 -> 0
+        graph.setDependencies(3, new int[]{0}, false);// depends on the cycle, but is not part of it
+        graph.setDependencies(4, new int[]{4}, false);// depends on itself
+        int[][] cycles = graph.cycles(ALL);
+        assertEquals(2, cycles.length);
+        for (int[] c : cycles) {
+            Arrays.sort(c);
+        }
+        Arrays.sort(cycles, (a, b) -> a[0] - b[0]);
+        assertArrayEquals(new int[]{0, 1, 2}, cycles[0]);
+        assertArrayEquals(new int[]{4}, cycles[1]);
+        int[] c = graph.cycleOf(1);
+        Arrays.sort(c);
+        assertArrayEquals(new int[]{0, 1, 2}, c);
+        assertEquals(0, graph.cycleOf(3).length);
+        assertArrayEquals(new int[]{4}, graph.cycleOf(4));
+        assertEquals(0, graph.cycleOf(5).length);
+        graph.setDependencies(2, new int[]{5}, false);// the cycle is broken
+        assertEquals(0, graph.cycleOf(0).length);
+        assertEquals(1, graph.cycles(ALL).length);
+    }
+}
@@ -20,7 +20,9 @@ public class Ex2GUI {
 
 	/** The main function for running Ex2 */
 	public static void main(String[] a) {
-		table = new Ex2Sheet(Ex2Utils.WIDTH, Ex2Utils.HEIGHT);
+		ConcurrentSheet sheet = new ConcurrentSheet(Ex2Utils.WIDTH, Ex2Utils.HEIGHT);
+		sheet.setBackground(true); // set returns at once, the loop keeps drawing the last values until the edit is recalculated
+		table = sheet;
 		testSimpleGUI(table);
 	}
 
@@ -92,7 +94,7 @@ public class Ex2GUI {
 			StdDrawEx2.line(xs, 0, xs, max_y);
 			int yy = max_y - (y + 1);
 			StdDrawEx2.text(1, y + y_height, "" + (yy));
-			StdDrawEx2.text(xc, max_y + y_height, "" + Ex2Utils.ABC[y]);
+			StdDrawEx2.text(xc, max_y + y_height, CellEntry.columnName(y));
 		}
 	}
 	/**
@@ -137,14 +139,8 @@ public class Ex2GUI {
 				table.set(xx,yy,s1);
 			}
 			else {
-				table.set(xx, yy, c);
-				int[][] calc_d = table.depth();
-				if (calc_d[xx][yy] == Ex2Utils.ERR) {
-					table.set(xx, yy, c);
-					table.get(xx,yy).setType(Ex2Utils.ERR_CYCLE_FORM);
-				}
+				table.set(xx, yy, c); // the sheet recalculates the cells depending on it (and marks a cycle as ERR_CYCLE_FORM)
 			}
-			table.eval();
 			StdDrawEx2.resetXY();
 		}
 	}
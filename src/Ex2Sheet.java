@@ -2,29 +2,65 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class represents a spreadsheet that holds a table of cells.
  * It allows setting and retrieving values, evaluating formulas, evaluating functions, and loading/saving data.
  */
 public class Ex2Sheet implements Sheet {
-    private Cell[][] table;
-    private Double[][] data;
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 2048;
+    public static final int INDEX_THRESHOLD = 64;// Smaller ranges are computed cell by cell (exactly as written)
+    private static final int PARALLEL_CHUNK = 256;// The number of cells a single parallel task evaluates
+    private CellStore store;// The non empty cells
+    private ValueStore values;// The computed numeric value of each cell (by index)
+    private ConcurrentHashMap<Integer, String> texts;// The text result of each IF cell whose chosen branch is a text (by index)
+    private RangeIndex aggregates;// Sum, min and max over rectangles of the computed values (null while no cell needs it)
+    private int wideCells = 0;// The number of cells depending on at least INDEX_THRESHOLD cells (large ranges)
+    private DependencyGraph graph;// Forward and reverse dependencies between the cells
+    private IntStore depths;// The dependency depth of each cell (by index), as computed by the last evaluation
+    private IntStore evalStamp;// The value (and type) of cell i is up to date iff evalStamp.get(i) == generation
+    private int generation = 0;// Incremented by every full recalculation (invalidates all the cached results at once)
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;// Levels with fewer cells are evaluated serially
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean lazy = false;// In lazy mode a cell is computed only when it is read
+    private int batch = 0;// The number of open batches, while positive the edited cells are only recorded
+    private int[] edits = new int[16];// The cells edited in the current batch (each appears once)
+    private int editCount = 0;
+    private IntStore flags;// The flags below of each cell (by index)
+    private static final int EDITED = 1;// The cell was edited in the current batch
+    private static final int CYCLIC = 2;// The cell is part of a circular dependency (kept up to date by set)
+    private static final int BAD_TYPE = 4;// The cell is not empty and its type is not valid in a range (text or an error)
+    private static final int VALID = 8, NOT_VALID = 16;// The cached validation of a function or IF cell, neither (unchecked) after its text or the type of a cell it refers to changes
+    private CountIndex filled;// Marks the non empty cells
+    private CountIndex invalid;// Marks the cells with the BAD_TYPE flag
 
     /**
      * Creates a spreadsheet with given width and height.
+     * Nothing is allocated per cell: the state of the cells is kept in pages allocated when a cell in them is first used,
+     * so an empty sheet costs a few bytes per thousand cells whatever its size.
      *
      * @param x The number of columns.
      * @param y The number of rows.
+     * @throws IllegalArgumentException If a dimension is negative or the sheet has more than Integer.MAX_VALUE cells.
      */
     public Ex2Sheet(int x, int y) {
-        table = new SCell[x][y];
-        for (int i = 0; i < x; i = i + 1) {
-            for (int j = 0; j < y; j = j + 1) {
-                table[i][j] = new SCell("");
-            }
-        }
+        if (x < 0 || y < 0 || (long) x * y > Integer.MAX_VALUE) {// A cell index is an int
+            throw new IllegalArgumentException("Bad sheet size: " + x + "," + y);
+        }
+        store = new CellStore(x, y);// Empty cells are not stored
+        graph = new DependencyGraph(x * y);
+        values = new ValueStore(x * y);
+        texts = new ConcurrentHashMap<>();
+        depths = new IntStore(x * y);
+        evalStamp = new IntStore(x * y);
+        flags = new IntStore(x * y);
+        filled = new CountIndex(x, y);
+        invalid = new CountIndex(x, y);
         eval();
     }
 
@@ -57,20 +93,21 @@ public class Ex2Sheet implements Sheet {
         if (t == Ex2Utils.FUNC_ERR_FORMAT) {
             ans = Ex2Utils.FUNC_ERR;
         }
-        if (t == Ex2Utils.IF) {
-            Object ifResult = evaluateIf(ans);
-            if (ifResult instanceof Double) {
-                return ifResult.toString();
+        if (t == Ex2Utils.IF) {// The result was stored when the cell was computed
+            int i = index(x, y);
+            if (values.has(i)) {
+                return Double.toString(values.get(i));
             }
-            if (ifResult instanceof String) {
-                return (String) ifResult;
+            String text = texts.get(i);
+            if (text != null) {
+                return text;
             }
         }
         if (t == Ex2Utils.ERR_WRONG_IF) {
             ans = Ex2Utils.ERRWRONG_IF;
         }
         if (t == Ex2Utils.NUMBER || t == Ex2Utils.FORM || t == Ex2Utils.FUNCTION) {
-            ans = "" + data[x][y];
+            ans = Double.toString(values.get(index(x, y)));
         }
         if (t == Ex2Utils.ERR_FORM_FORMAT) {
             ans = Ex2Utils.ERR_FORM;
@@ -87,7 +124,24 @@ public class Ex2Sheet implements Sheet {
      */
     @Override
     public Cell get(int x, int y) {
-        return table[x][y];
+        demand(x, y);
+        return cell(x, y);
+    }
+
+    /**
+     * Gets the stored cell at a specific location, an empty cell is not stored: a new empty cell is returned for it
+     * (so changing an empty cell has to be done with set).
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @return The SCell object.
+     */
+    private SCell cell(int x, int y) {
+        SCell c = store.get(x, y);
+        if (c == null) {
+            c = new SCell("");
+        }
+        return c;
     }
 
     /**
@@ -99,10 +153,10 @@ public class Ex2Sheet implements Sheet {
     @Override
     public Cell get(String cords) {
         Cell ans = null;
-        Index2D c = new CellEntry(cords);
-        int x = c.getX(), y = c.getY();
-        if (isIn(x, y)) {
-            ans = table[x][y];
+        long key = CellEntry.parse(cords);
+        int x = CellEntry.keyX(key), y = CellEntry.keyY(key);
+        if (key != CellEntry.INVALID && isIn(x, y)) {
+            ans = get(x, y);
         }
         return ans;
     }
@@ -112,7 +166,7 @@ public class Ex2Sheet implements Sheet {
      */
     @Override
     public int width() {
-        return table.length;
+        return store.width();
     }
 
     /**
@@ -120,7 +174,7 @@ public class Ex2Sheet implements Sheet {
      */
     @Override
     public int height() {
-        return table[0].length;
+        return store.height();
     }
 
     /**
@@ -132,9 +186,223 @@ public class Ex2Sheet implements Sheet {
      */
     @Override
     public void set(int x, int y, String s) {
-        Cell c = new SCell(s);
-        table[x][y] = c;
-        eval();// Recalculate all values after setting
+        int i = index(x, y);
+        int[] before = new int[0];
+        if ((flags.get(i) & CYCLIC) != 0) {
+            before = graph.cycleOf(i);// The cycle this edit may break
+        }
+        boolean wasEmpty = store.get(x, y) == null;
+        store.set(x, y, new SCell(s, x, y));// Copies of a relative formula share its compiled tree
+        updateDependencies(x, y);
+        updateCycles(i, before);
+        flags.clear(i, VALID | NOT_VALID);// A new text
+        if (wasEmpty != (store.get(x, y) == null)) {
+            filled.add(x, y, wasEmpty ? 1 : -1);
+            uncheckUsers(i);
+        }
+        typeChanged(x, y);
+        if (batch > 0) {
+            if ((flags.get(i) & EDITED) == 0) {// Recalculated once, when the batch is committed
+                flags.or(i, EDITED);
+                if (editCount == edits.length) {
+                    edits = Arrays.copyOf(edits, edits.length * 2);
+                }
+                edits[editCount++] = i;
+            }
+        } else if (lazy) {
+            invalidate(graph.dependents(i));// Computed again only when read
+        } else {
+            recalc(graph.dependents(i));// Recalculate only the edited cell and the cells depending on it
+        }
+    }
+
+    /**
+     * Updates the cycle flags after the dependencies of a cell were replaced, searching only from that cell.
+     * A new cycle has to pass through the edited cell, and only the cells of its old cycle may have left a cycle.
+     *
+     * @param cell   The index of the edited cell.
+     * @param before The cells of the cycle the cell was part of before the edit.
+     */
+    private void updateCycles(int cell, int[] before) {
+        for (int i = 0; i < before.length; i = i + 1) {
+            flags.clear(before[i], CYCLIC);
+        }
+        int[] after = graph.cycleOf(cell);
+        for (int i = 0; i < after.length; i = i + 1) {
+            flags.or(after[i], CYCLIC);
+        }
+        for (int i = 0; i < before.length; i = i + 1) {
+            if ((flags.get(before[i]) & CYCLIC) == 0) {// Not in the new cycle, but may still be in another one
+                int[] other = graph.cycleOf(before[i]);
+                for (int j = 0; j < other.length; j = j + 1) {
+                    flags.or(other[j], CYCLIC);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the count of the cells with an invalid type after the type of a cell may have changed,
+     * and if it did, drops the cached validation of the cells referring to it.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     */
+    private void typeChanged(int x, int y) {
+        int i = index(x, y);
+        SCell c = store.get(x, y);
+        boolean bad = c != null && invalidType(c.getType());
+        if (bad != ((flags.get(i) & BAD_TYPE) != 0)) {
+            if (bad) {
+                flags.or(i, BAD_TYPE);
+            } else {
+                flags.clear(i, BAD_TYPE);
+            }
+            invalid.add(x, y, bad ? 1 : -1);
+            uncheckUsers(i);
+        }
+    }
+
+    private void uncheckUsers(int cell) {// The validation of a function or an IF only reads the cells it refers to directly
+        int[] users = graph.getUsers(cell);
+        for (int i = 0; i < users.length; i = i + 1) {
+            flags.clear(users[i], VALID | NOT_VALID);
+        }
+    }
+
+    /**
+     * @param type A cell type.
+     * @return True if a cell of this type is not valid in a function range or an IF (a text or an error).
+     */
+    private static boolean invalidType(int type) {
+        return type == Ex2Utils.TEXT || type == Ex2Utils.FUNC_ERR_FORMAT || type == Ex2Utils.ERR_WRONG_IF || type == Ex2Utils.ERR_CYCLE_FORM || type == Ex2Utils.ERR_FORM_FORMAT;
+    }
+
+    /**
+     * Counts the cells of a range whose type is not valid in a function (text or an error), in O(log(width) * log(height)).
+     *
+     * @param x1 The first column of the range.
+     * @param y1 The first row of the range.
+     * @param x2 The last column of the range.
+     * @param y2 The last row of the range.
+     * @return The number of such cells (empty cells are valid).
+     */
+    public int invalidCells(int x1, int y1, int x2, int y2) {
+        return invalid.count(x1, y1, x2, y2);
+    }
+
+    /**
+     * Checks if a cell is part of a circular dependency (unlike depth(), which is also -1 for the cells depending on a cycle).
+     * The answer is kept up to date by every set(), so this takes O(1).
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @return True if the cell (indirectly) depends on itself.
+     */
+    public boolean inCycle(int x, int y) {
+        return isIn(x, y) && (flags.get(index(x, y)) & CYCLIC) != 0;
+    }
+
+    /**
+     * Finds all the circular dependencies of this spreadsheet (the strongly connected components of the dependency graph).
+     *
+     * @return The cycles, each one as the coordinates of its cells, 2 ints {x, y} per cell.
+     */
+    public int[][] cycles() {
+        int[][] components = graph.cycles(store.indexes());
+        int[][] ans = new int[components.length][];
+        for (int i = 0; i < components.length; i = i + 1) {
+            ans[i] = new int[2 * components[i].length];
+            for (int j = 0; j < components[i].length; j = j + 1) {
+                ans[i][2 * j] = components[i][j] / height();
+                ans[i][2 * j + 1] = components[i][j] % height();
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * @return The coordinates of all the non empty cells, 2 ints {x, y} per cell (column by column).
+     */
+    public int[] nonEmptyCells() {
+        int[] cells = store.indexes();
+        int[] ans = new int[2 * cells.length];
+        for (int i = 0; i < cells.length; i = i + 1) {
+            ans[2 * i] = cells[i] / height();
+            ans[2 * i + 1] = cells[i] % height();
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the cells an edit of the given cell changes: the cell itself and all the cells (indirectly) depending on it.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @return The coordinates of the cells, 2 ints {x, y} per cell.
+     */
+    public int[] dependents(int x, int y) {
+        return dependents(new int[]{x, y});
+    }
+
+    /**
+     * Computes the cells an edit of the given cells changes: the cells and all the cells (indirectly) depending on them.
+     *
+     * @param edited The coordinates of the edited cells, 2 ints {x, y} per cell.
+     * @return The coordinates of the changed cells, 2 ints {x, y} per cell (each appears once).
+     */
+    public int[] dependents(int[] edited) {
+        int[] start = new int[edited.length / 2];
+        for (int i = 0; i < start.length; i = i + 1) {
+            start[i] = index(edited[2 * i], edited[2 * i + 1]);
+        }
+        int[] cells = graph.dependents(start, start.length);
+        int[] ans = new int[2 * cells.length];
+        for (int i = 0; i < cells.length; i = i + 1) {
+            ans[2 * i] = cells[i] / height();
+            ans[2 * i + 1] = cells[i] % height();
+        }
+        return ans;
+    }
+
+    /**
+     * Starts a batch of edits: until the matching commit(), set() only stores the new cells,
+     * and the affected cells are then recalculated once (instead of once per edit).
+     * Batches may be nested, only the outermost commit() recalculates.
+     * While a batch is open the values of the cells depending on the edited cells are not up to date.
+     */
+    public void begin() {
+        batch++;
+    }
+
+    /**
+     * Ends a batch of edits (see begin()) and recalculates all the edited cells and the cells depending on them.
+     */
+    public void commit() {
+        if (batch == 0) {
+            throw new IllegalStateException("commit() without begin()");
+        }
+        batch--;
+        if (batch > 0 || editCount == 0) {
+            return;
+        }
+        int[] cells = graph.dependents(edits, editCount);// The union of the affected cells
+        for (int i = 0; i < editCount; i = i + 1) {
+            flags.clear(edits[i], EDITED);
+        }
+        editCount = 0;
+        if (lazy) {
+            invalidate(cells);
+        } else {
+            recalc(cells);
+        }
+    }
+
+    /**
+     * @return True if a batch of edits is open (see begin()).
+     */
+    public boolean inBatch() {
+        return batch > 0;
     }
 
     /**
@@ -142,30 +410,232 @@ public class Ex2Sheet implements Sheet {
      */
     @Override
     public void eval() {
-        int[][] dd = depth(); // Computes the dependency depth for each cell
-        data = new Double[width()][height()];
-        for (int x = 0; x < width(); x = x + 1) {
-            for (int y = 0; y < height(); y = y + 1) {
-                Cell c = table[x][y];
-                // If the cell is not a text type and is computable, evaluate its value
-                if (dd[x][y] != -1 && c != null && (c.getType() != Ex2Utils.TEXT)) {
-                    String res = eval(x, y);
-                    Double d = getDouble(res);
-                    // If the result is invalid, mark it as a formula error
-                    if (d == null) {
-                        if (c.getType() != Ex2Utils.FUNC_ERR_FORMAT && c.getType() != Ex2Utils.IF_ERR_FORMAT && c.getType() != Ex2Utils.IF && c.getType() != Ex2Utils.ERR_WRONG_IF) {
-                            c.setType(Ex2Utils.ERR_FORM_FORMAT);
-                        }
-                    } else {
-                        data[x][y] = d;// Stores the computed numeric value
+        depths.clear();
+        if (lazy) {
+            values.clear();
+            if (aggregates != null) {
+                aggregates.clear();
+            }
+            texts.clear();
+            generation++;// Every cell is computed again when it is read
+            return;
+        }
+        int[] order = graph.order(store.indexes(), depths); // Computes the dependency depth and the evaluation order of all (non empty) cells
+        values.clear();
+        if (aggregates != null) {
+            aggregates.clear();
+        }
+        texts.clear();
+        generation++;// A new pass: every cell is computed (at most) once
+        evalOrdered(order);
+    }
+
+    /**
+     * Sets the evaluation mode of this spreadsheet.
+     * In lazy mode edits and eval() only invalidate the affected cells, a cell is computed when it is read
+     * (by value, get or eval) together with the cells it depends on, and is then cached until one of them changes.
+     * Turning the lazy mode off evaluates the whole spreadsheet.
+     *
+     * @param lazy True for the lazy (demand driven) mode, false to compute every cell on every change.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            eval();
+        }
+    }
+
+    /**
+     * @return True if this spreadsheet is in lazy mode.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * In lazy mode, computes a cell that is not up to date, after the cells it depends on which are not up to date.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     */
+    private void demand(int x, int y) {
+        int i = index(x, y);
+        if (lazy && evalStamp.get(i) != generation && store.get(x, y) != null) {
+            int[] cone = graph.precedents(i, c -> evalStamp.get(c) != generation);// The cached cells (and their dependencies) are up to date
+            evalOrdered(graph.order(cone, depths));
+        }
+    }
+
+    /**
+     * Invalidates the given cells (an edited cell and all the cells depending on it), so they are computed again when read.
+     *
+     * @param cells The indexes of the cells to invalidate.
+     */
+    private void invalidate(int[] cells) {
+        for (int i = 0; i < cells.length; i = i + 1) {
+            values.clear(cells[i]);
+            if (aggregates != null) {
+                aggregates.changed(cells[i] / height(), cells[i] % height());
+            }
+            texts.remove(cells[i]);
+            evalStamp.set(cells[i], 0);
+        }
+    }
+
+    /**
+     * Sets when the cells are evaluated in parallel: the cells of each dependency level are independent of each other,
+     * so a level with at least threshold cells is evaluated concurrently on the pool (the next level starts only after it ends).
+     *
+     * @param threshold The minimal number of cells in a level for a parallel evaluation (Integer.MAX_VALUE: always serial).
+     * @param pool      The pool the levels are evaluated on.
+     */
+    public void setParallelism(int threshold, ForkJoinPool pool) {
+        this.parallelThreshold = Math.max(1, threshold);
+        this.pool = pool;
+    }
+
+    /**
+     * Evaluates the given cells, which are in evaluation order (each cell after all of its dependencies).
+     * Small sets of cells are evaluated one by one, large ones are evaluated level by level
+     * (a cell's level is the length of the longest dependency chain leading to it), evaluating each large level in parallel.
+     *
+     * @param order The indexes of the cells to evaluate.
+     */
+    private void evalOrdered(int[] order) {
+        if (order.length < parallelThreshold) {
+            for (int i = 0; i < order.length; i = i + 1) {
+                int cell = order[i];
+                evalCell(cell / height(), cell % height(), depths.get(cell));
+            }
+            return;
+        }
+        IntStore level = new IntStore(values.size());// The longest dependency chain inside the given cells (depth is 0 for references out of the sheet)
+        int max = 0, cycles = 0;
+        for (int i = 0; i < order.length; i = i + 1) {
+            int cell = order[i];
+            if (depths.get(cell) == -1) {// Cells in (or depending on) a cycle are not computed at all
+                cycles++;
+                continue;
+            }
+            int[] d = graph.getDependencies(cell);
+            int l = 0;
+            for (int j = 0; j < d.length; j = j + 1) {
+                l = Math.max(l, level.get(d[j]) + 1);
+            }
+            level.set(cell, l);
+            max = Math.max(max, l);
+        }
+        int[] start = new int[max + 2];// Counting sort of the cells by level
+        for (int i = 0; i < order.length; i = i + 1) {
+            if (depths.get(order[i]) != -1) {
+                start[level.get(order[i]) + 1]++;
+            }
+        }
+        for (int i = 1; i < start.length; i = i + 1) {
+            start[i] += start[i - 1];
+        }
+        int[] levels = new int[order.length - cycles];
+        int[] next = Arrays.copyOf(start, start.length);
+        for (int i = 0; i < order.length; i = i + 1) {
+            if (depths.get(order[i]) != -1) {
+                levels[next[level.get(order[i])]++] = order[i];
+            }
+        }
+        for (int l = 0; l <= max; l = l + 1) {
+            int from = start[l], to = start[l + 1];
+            if (to - from >= parallelThreshold) {
+                pool.invoke(new LevelTask(levels, from, to));// Returns only when the whole level was evaluated
+            }
+            for (int i = from; i < to; i = i + 1) {
+                if (to - from < parallelThreshold || !independent(levels[i])) {
+                    evalCell(levels[i] / height(), levels[i] % height(), depths.get(levels[i]));
+                }
+            }
+        }
+        for (int i = 0; i < order.length; i = i + 1) {
+            if (depths.get(order[i]) == -1) {
+                evalCell(order[i] / height(), order[i] % height(), -1);
+            }
+        }
+    }
+
+    /**
+     * Checks if a cell only reads cells of lower levels, so it can be evaluated concurrently with its level.
+     * A cell which was not compiled, or refers out of the sheet, may read cells which are not (yet) evaluated.
+     *
+     * @param cell The index of the cell.
+     * @return True if the cell can be evaluated in parallel.
+     */
+    private boolean independent(int cell) {
+        SCell c = store.get(cell / height(), cell % height());
+        return c == null || c.getType() == Ex2Utils.TEXT || c.getType() == Ex2Utils.NUMBER || (c.getFormula() != null && !graph.hasOutside(cell));
+    }
+
+    /**
+     * A task evaluating a part of a dependency level, split in halves until it is small enough.
+     */
+    private class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;// Never serialized, declared to keep the build warning free
+        private final int[] cells;
+        private final int from, to;
+
+        LevelTask(int[] cells, int from, int to) {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                for (int i = from; i < to; i = i + 1) {
+                    if (independent(cells[i])) {
+                        evalCell(cells[i] / height(), cells[i] % height(), depths.get(cells[i]));
                     }
                 }
-                // If the cell is part of a circular dependency
-                if (dd[x][y] == -1) {
-                    c.setType(Ex2Utils.ERR_CYCLE_FORM);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LevelTask(cells, from, mid), new LevelTask(cells, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Evaluates a single cell as part of a recalculation and updates its type and value.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     * @param d The dependency depth of the cell (-1 for a circular dependency).
+     */
+    private void evalCell(int x, int y, int d) {
+        Cell c = store.get(x, y);
+        // If the cell is not a text type and is computable, evaluate its value
+        if (d != -1 && c != null && (c.getType() != Ex2Utils.TEXT)) {
+            // If the result is invalid, mark it as a formula error
+            if (!evalNumber(x, y)) {
+                if (c.getType() != Ex2Utils.FUNC_ERR_FORMAT && c.getType() != Ex2Utils.IF_ERR_FORMAT && c.getType() != Ex2Utils.IF && c.getType() != Ex2Utils.ERR_WRONG_IF) {
+                    c.setType(Ex2Utils.ERR_FORM_FORMAT);
                 }
             }
         }
+        // If the cell is part of a circular dependency
+        if (d == -1) {
+            c.setType(Ex2Utils.ERR_CYCLE_FORM);
+            evalStamp.set(index(x, y), generation);// Never computed, it has no value
+        }
+        typeChanged(x, y);
+    }
+
+    /**
+     * Recalculates only the given cells (an edited cell and all the cells depending on it).
+     * The depth of all the other cells is unchanged, so only the given cells are re-ordered and evaluated.
+     *
+     * @param cells The indexes of the cells to recalculate.
+     */
+    private void recalc(int[] cells) {
+        int[] order = graph.order(cells, depths);
+        invalidate(order);// Only these cells have to be computed again, the others are read from the cache
+        evalOrdered(order);
     }
 
     /**
@@ -188,39 +658,18 @@ public class Ex2Sheet implements Sheet {
      * Computes the dependency depth for each cell.
      * This function determines the order in which cells should be computed,
      * ensuring that dependent cells are evaluated only after their dependencies.
+     * The cells are ordered topologically over the dependency graph, in O(cells + dependencies).
      *
      * @return A 2D array representing dependency of the cells.
      */
     @Override
     public int[][] depth() {
+        IntStore dd = new IntStore(width() * height());// The empty cells have depth 0
+        graph.order(store.indexes(), dd);
         int[][] ans = new int[width()][height()];
         for (int x = 0; x < width(); x = x + 1) {
             for (int y = 0; y < height(); y = y + 1) {
-                Cell c = this.get(x, y);
-                int t = c.getType();
-                if (Ex2Utils.TEXT != t) {// text cells are not computable.
-                    ans[x][y] = -1;
-                }
-            }
-        }
-        int count = 0, all = width() * height();// Track computed cells
-        boolean changed = true;
-        // process cells until no further changes occur or the maximum depth is reached in this spreadsheet.
-        while (changed && count < all) {
-            changed = false;
-            for (int x = 0; x < width(); x = x + 1) {
-                for (int y = 0; y < height(); y = y + 1) {
-                    if (ans[x][y] == -1) {// Process only uncomputed cells
-                        Cell c = this.get(x, y);
-                        ArrayList<Index2D> deps = allCells(c.getData());// Identify and collect the dependent cells required for computation."
-                        int dd = canBeComputed(deps, ans);// Determine if computation is possible
-                        if (dd != -1) {// If computation is possible, assign depth level
-                            ans[x][y] = dd;
-                            count++;// Increase computed cell count
-                            changed = true;// Mark that a change occurred
-                        }
-                    }
-                }
+                ans[x][y] = dd.get(index(x, y));
             }
         }
         return ans;
@@ -229,13 +678,27 @@ public class Ex2Sheet implements Sheet {
     /**
      * Loads spreadsheet data from a file/
      * It reads the file line by line and extracts cell coordinates and values.
+     * A binary sheet file (see SheetFile) is read through its index instead, and this sheet takes the size saved in it.
      *
      * @param fileName The name of the file to load data from.
      * @throws IOException If an error occurs while reading the file.
      */
     @Override
     public void load(String fileName) throws IOException {
-        Ex2Sheet sp = new Ex2Sheet();
+        SheetFile f = SheetFile.isSheetFile(fileName) ? SheetFile.open(fileName) : null;
+        Ex2Sheet sp = f == null ? new Ex2Sheet(width(), height()) : new Ex2Sheet(f.width(), f.height());
+        sp.setParallelism(parallelThreshold, pool);// Evaluated as this sheet would be
+        sp.begin();// All the lines are recalculated once, at the end
+        if (f != null) {
+            f.copyTo(sp);
+        } else {
+            loadText(sp, fileName);
+        }
+        sp.commit();
+        take(sp);
+    }
+
+    private static void loadText(Ex2Sheet sp, String fileName) throws IOException {
         File myObj = new File(fileName);
         Scanner myReader = new Scanner(myObj);
         String s0 = myReader.nextLine();
@@ -255,12 +718,24 @@ public class Ex2Sheet implements Sheet {
                 sp.set(x, y, functionPart);// Set value in the spreadsheet
             } catch (Exception e) {
                 e.printStackTrace();
-                System.err.println("Line: " + data + " is in the wrong format (should be x,y,cellData)");
+                System.err.println("Line: " + s0 + " is in the wrong format (should be x,y,cellData)");
             }
         }
-        sp.eval();
-        table = sp.table;
-        data = sp.data;
+    }
+
+    private void take(Ex2Sheet sp) {// Replaces the state of this sheet by the state of a loaded sheet
+        store = sp.store;
+        values = sp.values;
+        texts = sp.texts;
+        aggregates = sp.aggregates;
+        wideCells = sp.wideCells;
+        graph = sp.graph;
+        depths = sp.depths;
+        evalStamp = sp.evalStamp;
+        generation = sp.generation;
+        flags = sp.flags;
+        filled = sp.filled;
+        invalid = sp.invalid;
     }
 
     /**
@@ -274,43 +749,65 @@ public class Ex2Sheet implements Sheet {
     public void save(String fileName) throws IOException {
         FileWriter myWriter = new FileWriter(fileName);
         myWriter.write("I2CS ArielU: SpreadSheet (Ex2) assignment - this line should be ignored in the load method\n");
-        for (int x = 0; x < this.width(); x = x + 1) {
-            for (int y = 0; y < this.height(); y = y + 1) {
-                Cell c = get(x, y);
-                if (c != null && !c.getData().equals("")) {
-                    String s = x + "," + y + "," + c.getData();
-                    myWriter.write(s + "\n");
-                }
-            }
+        int[] cells = store.indexes();// Only the non empty cells, in the same order (column by column)
+        for (int i = 0; i < cells.length; i = i + 1) {
+            int x = cells[i] / height(), y = cells[i] % height();
+            String s = x + "," + y + "," + store.get(x, y).getData();
+            myWriter.write(s + "\n");
         }
         myWriter.close();
     }
 
     /**
-     * Checks if the given dependencies allow a cell to be computed.
-     * It verifies if all dependent cells have already been computed.
-     * "@param deps A list of cells that must be computed before this cell.
+     * Converts cell coordinates into the index of the cell in the dependency graph.
      *
-     * @param tmpTable A temporary table tracking computed cells.
-     * @return The computation depth if valid, otherwise -1.
+     * @param x The column index.
+     * @param y The row index.
+     * @return The index of the cell.
      */
-    private int canBeComputed(ArrayList<Index2D> deps, int[][] tmpTable) {
-        int ans = 0;
-        for (int i = 0; i < deps.size() & ans != -1; i = i + 1) {
-            Index2D c = deps.get(i);
-            if (!(isIn(c.getX(), c.getY()))) {// Check if cell is within bounds
-                ans = 0;
-                return ans;
-            }
-            int v = tmpTable[c.getX()][c.getY()];
-            if (v == -1) {
-                ans = -1;
-            } // not yet computed;
-            else {
-                ans = Math.max(ans, v + 1);// Update depth level
+    private int index(int x, int y) {
+        return x * height() + y;
+    }
+
+    /**
+     * Updates the dependency graph with the cells the (new) data of a cell refers to.
+     * The references are taken from the compiled formula, or from the text itself if it could not be compiled.
+     * Only the references up to the first one out of this sheet are kept (a cell with such a reference can not be computed).
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     */
+    private void updateDependencies(int x, int y) {
+        SCell c = cell(x, y);
+        int[] ranges = new int[0];
+        if (c.getFormula() != null) {
+            ranges = c.getFormula().ranges(x, y);
+        } else if (c.getType() != Ex2Utils.TEXT && c.getType() != Ex2Utils.NUMBER) {
+            ranges = textRanges(c.getData());
+        }
+        int[] refs = RefLexer.expand(ranges);
+        int[] deps = new int[refs.length / 2];
+        int n = 0;
+        boolean outside = false;
+        for (int i = 0; i < refs.length && !outside; i = i + 2) {
+            if (isIn(refs[i], refs[i + 1])) {
+                deps[n++] = index(refs[i], refs[i + 1]);
+            } else {
+                outside = true;
             }
         }
-        return ans;
+        if (graph.getDependencies(index(x, y)).length >= INDEX_THRESHOLD) {
+            wideCells--;
+        }
+        if (n >= INDEX_THRESHOLD) {
+            wideCells++;
+        }
+        graph.setDependencies(index(x, y), Arrays.copyOf(deps, n), outside);
+        if (wideCells > 0 && aggregates == null) {// A large range was added, start indexing the values
+            aggregates = new RangeIndex(values, width(), height());// Reads the values, its summaries are made when first used
+        } else if (wideCells == 0) {
+            aggregates = null;// No cell needs the index any more
+        }
     }
 
     /**
@@ -325,57 +822,243 @@ public class Ex2Sheet implements Sheet {
 
     @Override
     public String eval(int x, int y) {
-        Cell c = table[x][y];
-        String line = c.getData();// Get the data stored in the cell
-        c.setData(line);
-        if (c == null || c.getType() == Ex2Utils.TEXT) {
-            data[x][y] = null;
-            return line;
+        demand(x, y);
+        boolean has = evalNumber(x, y);
+        SCell c = cell(x, y);
+        int t = c.getType();
+        if (t == Ex2Utils.TEXT || t == Ex2Utils.NUMBER) {
+            return c.getData();
+        }
+        String ans = null;
+        if (has) {
+            ans = Double.toString(values.get(index(x, y)));
+        }
+        return ans;
+    }
+
+    /**
+     * Evaluates a specific cell (if it was not already evaluated in this pass) and checks if it has a numeric value.
+     * The value itself is then read with getValue(x, y), without any boxing or String conversion.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     * @return True if the cell has a numeric value.
+     */
+    public boolean evalNumber(int x, int y) {
+        int i = index(x, y);
+        if (evalStamp.get(i) != generation && store.get(x, y) == null) {// An empty cell has no value and is not stamped (so no page is allocated for it)
+            values.clear(i);
+            return false;
+        }
+        if (evalStamp.get(i) != generation) {
+            evalStamp.set(i, generation);// A cell reached again while being computed (a cycle) has no value
+            values.clear(i);
+            texts.remove(i);
+            computeCell(x, y);
+            typeChanged(x, y);
+            if (aggregates != null) {
+                aggregates.changed(x, y);
+            }
+        }
+        return values.has(i);
+    }
+
+    /**
+     * Checks if a cell has a numeric value (as computed by the last evaluation).
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     * @return True if the cell holds a number (a number, or a formula, function or IF with a numeric result).
+     */
+    public boolean hasValue(int x, int y) {
+        return values.has(index(x, y));
+    }
+
+    /**
+     * Gets the numeric value of a cell (as computed by the last evaluation).
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     * @return The value of the cell, only meaningful if hasValue(x, y) is true.
+     */
+    public double getValue(int x, int y) {
+        return values.get(index(x, y));
+    }
+
+    /**
+     * Checks if a range function over the given rectangle should be answered by the aggregate index:
+     * the range is large enough and the index exists (it is kept only while there are such ranges in the sheet).
+     *
+     * @param x1 The first column of the range.
+     * @param y1 The first row of the range.
+     * @param x2 The last column of the range.
+     * @param y2 The last row of the range.
+     * @return True if aggregate can be used for this range.
+     */
+    public boolean indexed(int x1, int y1, int x2, int y2) {
+        return aggregates != null && (x2 - x1 + 1) * (y2 - y1 + 1) >= INDEX_THRESHOLD;
+    }
+
+    /**
+     * Computes a range function over the (already computed) values of a rectangle of cells, using the aggregate index
+     * (see indexed). Cells without a value are skipped, as the empty cells are skipped by Range2D.
+     *
+     * @param fn The index of the function in Ex2Utils.FUNCTIONS (sum, average, min or max).
+     * @param x1 The first column of the range.
+     * @param y1 The first row of the range.
+     * @param x2 The last column of the range.
+     * @param y2 The last row of the range.
+     * @return The result of the function.
+     */
+    public double aggregate(int fn, int x1, int y1, int x2, int y2) {
+        if (fn == 3) {
+            return Math.min(Double.MAX_VALUE, aggregates.min(x1, y1, x2, y2));// Same initial values as Range2D
+        }
+        if (fn == 4) {
+            return Math.max(Double.MIN_VALUE, aggregates.max(x1, y1, x2, y2));
+        }
+        double sum = aggregates.sum(x1, y1, x2, y2);
+        if (fn == 1) {
+            return sum;
+        }
+        return sum / ((x2 - x1 + 1) * (y2 - y1 + 1));// The average over all the cells of the range, as in Range2D
+    }
+
+    /**
+     * Computes a range function over the values of a rectangle of cells, in the order of Range2D: row by row,
+     * and every row from left to right, so sums and products are bit for bit those of a cell by cell loop.
+     * A range of a single column is a contiguous part of the values and is reduced by the kernels of ValueStore.
+     * The cells of the range which were not computed yet in this pass are evaluated first, cells without a value are skipped.
+     * The results are as in Range2D: min starts at Double.MAX_VALUE, max at Double.MIN_VALUE, and average divides by the area.
+     *
+     * @param fn The index of the function in Ex2Utils.FUNCTIONS (sum, average, min, max or multiply).
+     * @param x1 The first column of the range.
+     * @param y1 The first row of the range.
+     * @param x2 The last column of the range.
+     * @param y2 The last row of the range.
+     * @return The result of the function.
+     */
+    public double reduce(int fn, int x1, int y1, int x2, int y2) {
+        double ans = 0;
+        if (fn == 3) {
+            ans = Double.MAX_VALUE;
+        } else if (fn == 4) {
+            ans = Double.MIN_VALUE;
+        } else if (fn == 5) {
+            ans = 1;
+        }
+        if (x1 == x2 && y1 <= y2) {
+            int from = index(x1, y1), to = index(x1, y2) + 1;
+            for (int i = from; i < to; i = i + 1) {
+                if (evalStamp.get(i) != generation) {
+                    evalNumber(x1, i - from + y1);
+                }
+            }
+            if (fn == 3) {
+                ans = values.min(from, to, ans);
+            } else if (fn == 4) {
+                ans = values.max(from, to, ans);
+            } else if (fn == 5) {
+                ans = values.product(from, to, ans);
+            } else {
+                ans = values.sum(from, to, ans);
+            }
+        } else {
+            for (int y = y1; y <= y2; y = y + 1) {
+                for (int x = x1; x <= x2; x = x + 1) {
+                    if (evalNumber(x, y)) {
+                        double v = values.get(index(x, y));
+                        if (fn == 3) {
+                            ans = v < ans ? v : ans;
+                        } else if (fn == 4) {
+                            ans = v > ans ? v : ans;
+                        } else if (fn == 5) {
+                            ans *= v;
+                        } else {
+                            ans += v;
+                        }
+                    }
+                }
+            }
+        }
+        if (fn == 2) {
+            ans = ans / ((x2 - x1 + 1) * (y2 - y1 + 1));
+        }
+        return ans;
+    }
+
+    /**
+     * Computes a specific cell, without using the previous results of this cell, and stores its value.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     */
+    private void computeCell(int x, int y) {
+        SCell c = store.get(x, y);
+        if (c == null) {// An empty cell has no value
+            return;
+        }
+        int i = index(x, y);
+        if ((flags.get(i) & CYCLIC) != 0) {// Marked as evalCell marks it, however the cell is reached (e.g. read by a lazy demand)
+            c.setType(Ex2Utils.ERR_CYCLE_FORM);
+            return;
         }
+        String line = c.getData();// Get the data stored in the cell
+        c.resetType();
         int type = c.getType();
         if (type == Ex2Utils.NUMBER) {
-            data[x][y] = getDouble(c.toString());
-            return line;
-        }
-        if (type == Ex2Utils.FUNCTION || type == Ex2Utils.FUNC_ERR_FORMAT) {
-            if (!Range2D.advnacedValidFunction(line, this)) {
+            values.set(i, c.getNumber());
+        } else if (type == Ex2Utils.FUNCTION || type == Ex2Utils.FUNC_ERR_FORMAT) {
+            if (!validated(i, c, true)) {
                 c.setType(Ex2Utils.FUNC_ERR_FORMAT);
             } else {
                 c.setType(Ex2Utils.FUNCTION);
-                Range2D range = new Range2D(Range2D.findStartAndEndValid(line));
-                range.updateValue(this);
-                Double dd1 = range.evaluateFunction(line);
-                data[x][y] = dd1;
+                values.set(i, c.getFormula().compute(this, x, y));
             }
         } else if (type == Ex2Utils.IF || type == Ex2Utils.IF_ERR_FORMAT || type == Ex2Utils.ERR_WRONG_IF) {
-            if (!advancedValidIf(line)) {
+            if (!validated(i, c, false)) {
                 c.setType(Ex2Utils.ERR_WRONG_IF);
             } else {
                 c.setType(Ex2Utils.IF);
-                Object ifResult = evaluateIf(line);
-                if (ifResult instanceof Double) {
-                    data[x][y] = (Double) ifResult;
+                Formula branch = c.getFormula().branch(this, x, y);
+                if (branch.getKind() == Formula.TEXT && branch.getText() != null) {
+                    texts.put(i, branch.getText());
+                } else if (branch.computable(this, x, y)) {
+                    values.set(i, branch.compute(this, x, y));
                 }
             }
         } else if (type == Ex2Utils.FORM | type == Ex2Utils.ERR_CYCLE_FORM || type == Ex2Utils.ERR_FORM_FORMAT) {
-            line = line.substring(1); // removing the first "="
-            if (isForm(line)) {
-                Double dd = computeForm(x, y);
-                data[x][y] = dd;
-                if (dd == null) {
-                    c.setType(Ex2Utils.ERR_FORM_FORMAT);
-                } else {
-                    c.setType(Ex2Utils.FORM);
-                }
+            Formula f = c.getFormula();
+            if (f != null && f.computable(this, x, y)) {// walks the compiled formula (out of range references can not be computed)
+                values.set(i, f.compute(this, x, y));
+                c.setType(Ex2Utils.FORM);
             } else {
-                data[x][y] = null;
+                c.setType(Ex2Utils.ERR_FORM_FORMAT);
             }
         }
-        String ans = null;
-        if (data[x][y] != null) {
-            ans = data[x][y].toString();
+    }
+
+    /**
+     * Validates a function or an IF cell, the result is cached until its text or the type of a cell it refers to changes.
+     *
+     * @param i        The index of the cell.
+     * @param c        The cell.
+     * @param function True for a function, false for an IF.
+     * @return True if the cell is valid.
+     */
+    private boolean validated(int i, SCell c, boolean function) {
+        int f = flags.get(i);
+        if ((f & (VALID | NOT_VALID)) == 0) {
+            boolean ok;
+            if (function) {
+                ok = Range2D.advnacedValidFunction(c.getData(), this);
+            } else {
+                ok = c.getFormula() != null && validIf(c.getData()) && checkCells(c.getIfCells());
+            }
+            flags.or(i, ok ? VALID : NOT_VALID);
+            return ok;
         }
-        return ans;
+        return (f & VALID) != 0;
     }
 
     /**
@@ -387,10 +1070,8 @@ public class Ex2Sheet implements Sheet {
      */
     public static Integer getInteger(String line) {
         Integer ans = null;
-        try {
-            ans = Integer.parseInt(line);
-        } catch (Exception e) {
-            ;
+        if (NumberScanner.isInteger(line)) {
+            ans = NumberScanner.parseInt(line, 0);
         }
         return ans;
     }
@@ -404,10 +1085,8 @@ public class Ex2Sheet implements Sheet {
      */
     public static Double getDouble(String line) {
         Double ans = null;
-        try {
-            ans = Double.parseDouble(line);
-        } catch (Exception e) {
-            ;
+        if (NumberScanner.isNumber(line)) {
+            ans = NumberScanner.parseDouble(line, Double.NaN);
         }
         return ans;
     }
@@ -450,25 +1129,6 @@ public class Ex2Sheet implements Sheet {
         return ans;
     }
 
-    /**
-     * Computes the result of a formula stored in a specific cell.
-     * Removes the '=' symbol and validates the formula before computation.
-     *
-     * @param x The column index of the cell.
-     * @param y The row index of the cell.
-     * @return The computed value as a Double, or null if invalid.
-     */
-    private Double computeForm(int x, int y) {
-        Double ans = null;
-        String form = table[x][y].getData();
-        form = form.substring(1);// remove the "="
-        if (isForm(form)) {
-            form = removeSpaces(form);
-            ans = computeFormP(form);
-        }
-        return ans;
-    }
-
     /**
      * Checks if a given string is a properly formatted formula.
      *
@@ -512,93 +1172,29 @@ public class Ex2Sheet implements Sheet {
      * @return A list of Index2D objects representing all referenced cells.
      */
     public ArrayList<Index2D> allCells(String line) {
+        int[] cells = RefLexer.expand(textRanges(line));
         ArrayList<Index2D> ans = new ArrayList<Index2D>();
-        if (Range2D.ValidFunction(line)) {
-            line = Range2D.AllCellsInRange(line);// Convert function calls to all the cells int the range.
-        }
-        if (validIf(line)) {
-            line = allCellsInIf(line);// Convert If calls to all the cells in the If statements.
-        }
-        int i = 0;
-        int len = line.length();
-        while (i < len) {
-            int m2 = Math.min(len, i + 2);
-            int m3 = Math.min(len, i + 3);
-            String s2 = line.substring(i, m2);
-            String s3 = line.substring(i, m3);
-            Index2D sc2 = new CellEntry(s2);
-            Index2D sc3 = new CellEntry(s3);
-            if (sc3.isValid()) {// Check if a 3-character reference is valid
-                ans.add(sc3);
-                i += 3;
-            } else {
-                if (sc2.isValid()) {// Check if a 2-character reference is valid
-                    ans.add(sc2);
-                    i += 2;
-                } else {
-                    i = i + 1;
-                }
-            }
-
+        for (int i = 0; i < cells.length; i = i + 2) {
+            ans.add(new CellEntry(cells[i], cells[i + 1]));
         }
         return ans;
     }
 
     /**
-     * Computes the result of a mathematical formula recursively.
+     * Extracts the references of a cell text (see RefLexer), ranges are kept as ranges.
+     * Of an IF only the cells of its condition and of its function and IF branches are taken (see allCellsInIf).
      *
-     * @param form The formula string to evaluate.
-     * @return The computed result as a Double, or null if the formula is invalid.
+     * @param line The formula string.
+     * @return The references, 4 ints per reference.
      */
-    private Double computeFormP(String form) {
-        Double ans = null;
-        while (canRemoveB(form)) {
-            form = removeB(form);
-        }
-        CellEntry c = new CellEntry(form);
-        if (c.isValid()) {
-            return getDouble(eval(c.getX(), c.getY()));// Evaluate referenced cell
-        } else {
-            if (isNumber(form)) {
-                ans = getDouble(form);// Convert number string to Double
-            } else {
-                int ind = findLastOp(form);// Find last operator position
-                int opInd = opCode(form.substring(ind, ind + 1));// Get operation type
-                if (ind == 0) {  // the case of -1, or -(1+1)
-                    double d = 1;
-                    if (opInd == 1) {// If the operator is '-', negate the value
-                        d = -1;
-                    }
-                    ans = d * computeFormP(form.substring(1));// Recursively compute the remaining expression
-                } else {
-                    String f1 = form.substring(0, ind);
-                    String f2 = form.substring(ind + 1);
-
-                    Double a1 = computeFormP(f1);
-                    Double a2 = computeFormP(f2);
-                    if (a1 == null || a2 == null) {
-                        ans = null;
-                    } else {
-                        if (opInd == 0) {
-                            ans = a1 + a2;
-                        }
-                        if (opInd == 1) {
-                            ans = a1 - a2;
-                        }
-                        if (opInd == 2) {
-                            ans = a1 * a2;
-                        }
-                        if (opInd == 3) {
-                            ans = a1 / a2;
-                        }
-                    }
-                }
-            }
+    public int[] textRanges(String line) {
+        if (!Range2D.ValidFunction(line) && validIf(line)) {
+            line = allCellsInIf(line);
         }
-        return ans;
+        return RefLexer.scan(line);
     }
 
-    private static int opCode(String op) {
+    static int opCode(String op) {
         int ans = -1;
         for (int i = 0; i < Ex2Utils.M_OPS.length; i = i + 1) {
             if (op.equals(Ex2Utils.M_OPS[i])) {
@@ -608,28 +1204,6 @@ public class Ex2Sheet implements Sheet {
         return ans;
     }
 
-    private static int findFirstOp(String form) {
-        int ans = -1;
-        int s1 = 0, max = -1;
-        for (int i = 0; i < form.length(); i++) {
-            char c = form.charAt(i);
-            if (c == ')') {
-                s1--;
-            }
-            if (c == '(') {
-                s1++;
-            }
-            int op = op(form, Ex2Utils.M_OPS, i);
-            if (op != -1) {
-                if (s1 > max) {
-                    max = s1;
-                    ans = i;
-                }
-            }
-        }
-        return ans;
-    }
-
     /**
      * Finds the position of the last operator in an expression.
      * Used to determine where to split for recursive computation.
@@ -637,7 +1211,7 @@ public class Ex2Sheet implements Sheet {
      * @param form The formula string.
      * @return The index of the last operator found, or -1 if none is found.
      */
-    private static int findLastOp(String form) {
+    static int findLastOp(String form) {
         int ans = -1;
         double s1 = 0, min = -1;
         for (int i = 0; i < form.length(); i++) {
@@ -669,7 +1243,7 @@ public class Ex2Sheet implements Sheet {
      * @param s The input string.
      * @return The modified string without unnecessary parentheses.
      */
-    private static String removeB(String s) {
+    static String removeB(String s) {
         if (canRemoveB(s)) {
             s = s.substring(1, s.length() - 1);
         }
@@ -683,7 +1257,7 @@ public class Ex2Sheet implements Sheet {
      * @param s The input string.
      * @return True if the parentheses can be removed, otherwise false.
      */
-    private static boolean canRemoveB(String s) {
+    static boolean canRemoveB(String s) {
         boolean ans = false;
         if (s != null && s.startsWith("(") && s.endsWith(")")) {
             ans = true;
@@ -730,14 +1304,7 @@ public class Ex2Sheet implements Sheet {
      * @return True if the string can be parsed as a number, otherwise false.
      */
     public static boolean isNumber(String line) {
-        boolean ans = false;
-        try {
-            double v = Double.parseDouble(line);
-            ans = true;
-        } catch (Exception e) {
-            ;
-        }
-        return ans;
+        return NumberScanner.isNumber(line);
     }
 
     /**
@@ -763,39 +1330,8 @@ public class Ex2Sheet implements Sheet {
      * @return True if the condition evaluates to true, otherwise false.
      */
     public boolean evaluateCondition(String line) {
-        String condition = ifCondition(line);
-        if (condition.contains("<=")) {
-            int split = condition.indexOf("<=");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 2);
-            return computeFormP(form1) <= computeFormP(form2);
-        } else if (condition.contains(">=")) {
-            int split = condition.indexOf(">=");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 2);
-            return computeFormP(form1) >= computeFormP(form2);
-        } else if (condition.contains("==")) {
-            int split = condition.indexOf("==");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 2);
-            return computeFormP(form1).equals(computeFormP(form2));
-        } else if (condition.contains("!=")) {
-            int split = condition.indexOf("!=");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 2);
-            return !computeFormP(form1).equals(computeFormP(form2));
-        } else if (condition.contains(">")) {
-            int split = condition.indexOf(">");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 1);
-            return computeFormP(form1) > computeFormP(form2);
-        } else if (condition.contains("<")) {
-            int split = condition.indexOf("<");
-            String form1 = condition.substring(0, split);
-            String form2 = condition.substring(split + 1);
-            return computeFormP(form1) < computeFormP(form2);
-        }
-        return false;
+        Formula f = Formula.compileIf(line);
+        return f != null && f.condition(this);
     }
 
     /**
@@ -858,27 +1394,11 @@ public class Ex2Sheet implements Sheet {
      * @return The computed result of the IF function as an Object (Number or String).
      */
     public Object evaluateIf(String line) {
-        String conditionValue;
-        if (evaluateCondition(line)) {
-            conditionValue = ifTrue(line);
-        } else {
-            conditionValue = ifFalse(line);
-        }
-        if (isNumber(conditionValue)) {
-            return Double.parseDouble(conditionValue);// Convert number string to Double
-        }
-        if (SCell.isFunction(conditionValue)) {
-            Range2D range = new Range2D(Range2D.findStartAndEndValid(conditionValue));
-            range.updateValue(this);
-            return range.evaluateFunction(conditionValue);// Evaluate function in the range
+        Formula f = Formula.compileIf(line);
+        if (f == null) {
+            return null;
         }
-        if (SCell.BasicIsForm(conditionValue)) {
-            return computeFormP(conditionValue.substring(1));// Compute mathematical expression
-        }
-        if (SCell.isIf(conditionValue)) {
-            return evaluateIf(conditionValue);// Recursively evaluate IF statement
-        }
-        return conditionValue;// Return as a string if none of the above conditions apply
+        return f.computeIf(this);
     }
 
     /**
@@ -1077,33 +1597,13 @@ public class Ex2Sheet implements Sheet {
 
     /**
      * Checks if a given string represents a valid spreadsheet cell.
-     * A valid cell follows the format "A0" to "Z99".
+     * A valid cell is one or more letters (the column: A..Z, AA..AZ, ...) followed by the row number, such as "A0" or "AB123".
      *
      * @param a The cell reference.
      * @return True if the cell is valid, otherwise false.
      */
     public static boolean validCell(String a) {
-        if (a == null || a.isEmpty()) {
-            return false;
-        }
-        a = a.toLowerCase();
-        if (a.length() == 2) {
-            if (a.charAt(0) >= 'a' && a.charAt(0) <= 'z' && a.charAt(1) >= '0' && a.charAt(1) <= '9') {
-                return true;
-            }
-        }
-        if (a.length() == 3) {
-            if (a.charAt(0) >= 'a' && a.charAt(0) <= 'z') {
-                String numPart = a.substring(1);
-                try {
-                    int num = Integer.parseInt(numPart);
-                    return num >= 0 && num <= 99;
-                } catch (NumberFormatException e) {
-                    return false;
-                }
-            }
-        }
-        return false;
+        return CellEntry.parse(a) != CellEntry.INVALID;
     }
 
     /**
@@ -1114,25 +1614,8 @@ public class Ex2Sheet implements Sheet {
      * @return True if the cell exists in the sheet, otherwise false.
      */
     public boolean advancedValidCell(String line) {
-        if (!validCell(line)) {
-            return false;
-        }
-        line = line.toUpperCase();
-        char col = line.charAt(0);  // First character is the column (A-Z)
-        String rowPart = line.substring(1);  // Extract numeric part
-
-        try {
-            int row = Integer.parseInt(rowPart);  // Convert the row part to an integer
-
-            // Ensure column and row are within valid spreadsheet dimensions
-            if (col - 'A' >= 0 && col - 'A' < this.width() && row >= 0 && row < this.height()) {
-                return true;
-            }
-        } catch (NumberFormatException e) {
-            return false;  // If parsing fails, it's not a valid cell
-        }
-
-        return false;
+        long key = CellEntry.parse(line);
+        return key != CellEntry.INVALID && isIn(CellEntry.keyX(key), CellEntry.keyY(key));
     }
 
     /**
@@ -1146,29 +1629,36 @@ public class Ex2Sheet implements Sheet {
      * @return An ArrayList containing all cell references in the IF condition.
      */
     public ArrayList<Index2D> allCellsIf(String line) {
-        String Condition = ifCondition(line);
+        int[] cells = RefLexer.expand(ifRanges(line));
+        ArrayList<Index2D> ans = new ArrayList<Index2D>();
+        for (int i = 0; i < cells.length; i = i + 2) {
+            ans.add(new CellEntry(cells[i], cells[i + 1]));
+        }
+        return ans;
+    }
+
+    /**
+     * Extracts the references used inside an IF function, as allCellsIf (the condition, formula branches and nested IFs),
+     * keeping ranges as ranges.
+     *
+     * @param line The IF function string.
+     * @return The references, 4 ints per reference (see RefLexer).
+     */
+    public static int[] ifRanges(String line) {
         String ifTrue = ifTrue(line);
         String ifFalse = ifFalse(line);
-        ArrayList<Index2D> cells = allCells(Condition);
+        int[] ans = RefLexer.scan(ifCondition(line));
         if (SCell.isIf(ifTrue)) {
-            ArrayList<Index2D> cellsInIfTrue = allCellsIf(ifTrue);
-            cells.addAll(cellsInIfTrue);
-        } else {
-            if (ifTrue.startsWith("=") && !SCell.isFunction(ifTrue)) {
-                ArrayList<Index2D> cellsInIfTrue = allCells(ifTrue);
-                cells.addAll(cellsInIfTrue);
-            }
+            ans = RefLexer.concat(ans, ifRanges(ifTrue));
+        } else if (ifTrue.startsWith("=") && !SCell.isFunction(ifTrue)) {
+            ans = RefLexer.concat(ans, RefLexer.scan(ifTrue));
         }
         if (SCell.isIf(ifFalse)) {
-            ArrayList<Index2D> cellsInIfFalse = allCellsIf(ifFalse);
-            cells.addAll(cellsInIfFalse);
-        } else {
-            if (ifFalse.startsWith("=") && !SCell.isFunction(ifFalse)) {
-                ArrayList<Index2D> cellsInIfFalse = allCells(ifFalse);
-                cells.addAll(cellsInIfFalse);
-            }
+            ans = RefLexer.concat(ans, ifRanges(ifFalse));
+        } else if (ifFalse.startsWith("=") && !SCell.isFunction(ifFalse)) {
+            ans = RefLexer.concat(ans, RefLexer.scan(ifFalse));
         }
-        return cells;
+        return ans;
     }
 
     /**
@@ -1182,19 +1672,26 @@ public class Ex2Sheet implements Sheet {
      */
 
     public boolean CheckCellsInIf(String line) {
-        ArrayList<Index2D> cells = allCellsIf(line);
-        if (cells.isEmpty()) {
-            return true;
-        }
-        for (int i = 0; i < cells.size(); i++) {
-            Cell current = get(cells.get(i).toString());
-            if (current.getData().isEmpty()) {
-                return false;
+        return checkCells(ifRanges(line));
+    }
+
+    /**
+     * Checks that all the given cells are in the sheet, not empty, and hold no text or error (see CheckCellsInIf).
+     *
+     * @param ranges The references to check, 4 ints per reference (see RefLexer).
+     * @return True if all referenced cells are valid, otherwise false.
+     */
+    private boolean checkCells(int[] ranges) {
+        for (int i = 0; i < ranges.length; i = i + 4) {
+            int x1 = ranges[i], y1 = ranges[i + 1], x2 = ranges[i + 2], y2 = ranges[i + 3];
+            if (x1 > x2 || y1 > y2) {
+                continue;// No cells
             }
-            if (!advancedValidCell(cells.get(i).toString())) {
+            if (!isIn(x1, y1) || !isIn(x2, y2)) {
                 return false;
             }
-            if (current.getType() == Ex2Utils.TEXT || current.getType() == Ex2Utils.FUNC_ERR_FORMAT || current.getType() == Ex2Utils.ERR_WRONG_IF || current.getType() == Ex2Utils.ERR_CYCLE_FORM || current.getType() == Ex2Utils.ERR_FORM_FORMAT) {
+            int area = (x2 - x1 + 1) * (y2 - y1 + 1);
+            if (filled.count(x1, y1, x2, y2) != area || invalid.count(x1, y1, x2, y2) != 0) {// An empty cell, a text or an error
                 return false;
             }
         }
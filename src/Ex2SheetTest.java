@@ -4,6 +4,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 class Ex2SheetTest {
     private Ex2Sheet sheet;
@@ -58,11 +59,14 @@ class Ex2SheetTest {
         assertTrue(sheet.validCell("I17"));
         assertTrue(sheet.validCell("A98"));
         assertTrue(sheet.validCell("Z64"));
-        assertFalse(sheet.validCell("A100"));
+        assertTrue(sheet.validCell("A100"));// multi letter columns and any row number
+        assertTrue(sheet.validCell("naa34"));
         assertFalse(sheet.validCell("1A"));
         assertFalse(sheet.validCell(""));
         assertFalse(sheet.validCell(null));
-        assertFalse(sheet.validCell("naa34"));
+        assertFalse(sheet.validCell("A1B"));
+        assertFalse(sheet.validCell("A-1"));
+        assertFalse(sheet.validCell("AB"));
     }
 
     @Test
@@ -72,6 +76,11 @@ class Ex2SheetTest {
         assertFalse(sheet.advancedValidCell("J17"));
         assertFalse(sheet.advancedValidCell("A18"));
         assertFalse(sheet.advancedValidCell("AA1"));
+        Ex2Sheet wide = new Ex2Sheet(1000, 2000);
+        assertTrue(wide.advancedValidCell("AA1"));
+        assertTrue(wide.advancedValidCell("ALL1999"));// column 999
+        assertFalse(wide.advancedValidCell("ALM0"));
+        assertFalse(wide.advancedValidCell("A2000"));
     }
 
     @Test
@@ -386,4 +395,390 @@ class Ex2SheetTest {
         assertEquals(0, sheet.countOccurrences("=A1+B1", "if"));
         assertEquals(3, sheet.countOccurrences("if if if", "if"));
     }
+    @Test
+    void testIncrementalRecalc() {
+        sheet.set(0, 0, "2");
+        sheet.set(0, 1, "=A0*10");
+        sheet.set(0, 2, "=A1+1");
+        sheet.set(1, 0, "=if(A0>1,=A2*2,small)");
+        sheet.set(2, 0, "=sum(A0:A2)");
+        assertEquals("42.0", sheet.value(1, 0));
+        assertEquals("43.0", sheet.value(2, 0));
+        sheet.set(0, 0, "3");
+        assertEquals("30.0", sheet.value(0, 1));
+        assertEquals("31.0", sheet.value(0, 2));
+        assertEquals("62.0", sheet.value(1, 0));
+        assertEquals("64.0", sheet.value(2, 0));
+        sheet.set(0, 0, "1");
+        assertEquals("small", sheet.value(1, 0));
+        sheet.set(0, 0, "=A2");
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(0, 0));
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(2, 0));
+        sheet.set(0, 0, "4");
+        assertEquals("41.0", sheet.value(0, 2));
+        assertEquals("85.0", sheet.value(2, 0));
+    }
+
+    @Test
+    void testSharedReferences() {
+        sheet.set(0, 0, "1");
+        for (int y = 1; y < 17; y = y + 1) {
+            sheet.set(0, y, "=(A" + (y - 1) + "+A" + (y - 1) + ")/2+A" + (y - 1) + "/2+A" + (y - 1) + "/2");// a diamond per row
+        }
+        sheet.set(1, 0, "=sum(A0:A16)");
+        assertEquals("65536.0", sheet.value(0, 16));
+        assertEquals("131071.0", sheet.value(1, 0));
+        sheet.set(2, 0, "=C1");
+        sheet.set(2, 1, "=C0");
+        assertNull(sheet.eval(2, 0));// a cycle gives null instead of an endless recursion
+    }
+
+    @Test
+    void testGetValue() {
+        sheet.set(0, 0, "2.5");
+        sheet.set(0, 1, "=A0*4");
+        sheet.set(0, 2, "text");
+        sheet.set(0, 3, "=if(A0>2,big,small)");
+        sheet.set(0, 4, "=A2+1");
+        assertTrue(sheet.hasValue(0, 0));
+        assertEquals(2.5, sheet.getValue(0, 0));
+        assertEquals(10.0, sheet.getValue(0, 1));
+        assertFalse(sheet.hasValue(0, 2));
+        assertFalse(sheet.hasValue(0, 3));
+        assertFalse(sheet.hasValue(0, 4));
+        assertFalse(sheet.hasValue(5, 5));
+        sheet.set(0, 2, "4");
+        assertTrue(sheet.hasValue(0, 4));
+        assertEquals(5.0, sheet.getValue(0, 4));
+    }
+
+    @Test
+    void testParallelEval() {
+        Ex2Sheet parallel = new Ex2Sheet();
+        parallel.setParallelism(1, new ForkJoinPool(4));// every level is evaluated in parallel
+        for (int x = 0; x < sheet.width(); x = x + 1) {
+            for (int y = 0; y < sheet.height(); y = y + 1) {
+                String data = "" + (x + y);
+                if (x > 0 && y % 3 == 0) {
+                    data = "=" + Ex2Utils.ABC[x - 1] + y + "*2+1";
+                } else if (x > 0 && y % 3 == 1) {
+                    data = "=sum(A0:" + Ex2Utils.ABC[x - 1] + (y - 1) + ")";
+                } else if (y % 7 == 2) {
+                    data = "=if(A" + (y - 1) + ">5,=A" + (y - 1) + "*2,-1)";
+                }
+                sheet.set(x, y, data);
+                parallel.set(x, y, data);
+            }
+        }
+        sheet.set(1, 2, "=B5");
+        parallel.set(1, 2, "=B5");
+        sheet.set(1, 5, "=B2");// a cycle
+        parallel.set(1, 5, "=B2");
+        sheet.eval();
+        parallel.eval();
+        for (int x = 0; x < sheet.width(); x = x + 1) {
+            for (int y = 0; y < sheet.height(); y = y + 1) {
+                assertEquals(sheet.value(x, y), parallel.value(x, y));
+                assertEquals(sheet.get(x, y).getType(), parallel.get(x, y).getType());
+            }
+        }
+    }
+
+    @Test
+    void testLazyEval() {
+        sheet.setLazy(true);
+        sheet.set(0, 0, "2");
+        sheet.set(0, 1, "=A0*3");
+        sheet.set(0, 2, "=A1+1");
+        sheet.set(1, 0, "=A0+100");
+        assertFalse(sheet.hasValue(0, 2));// nothing was read yet
+        assertEquals("7.0", sheet.value(0, 2));
+        assertTrue(sheet.hasValue(0, 1));// computed as a dependency of A2
+        assertFalse(sheet.hasValue(1, 0));// not read, not computed
+        sheet.set(0, 0, "3");
+        assertFalse(sheet.hasValue(0, 2));// invalidated by the edit
+        assertEquals("10.0", sheet.value(0, 2));
+        assertEquals("103.0", sheet.eval(1, 0));
+        sheet.set(2, 0, "=C1");
+        sheet.set(2, 1, "=C0");
+        assertEquals(Ex2Utils.ERR_CYCLE, sheet.value(2, 1));
+        assertEquals(Ex2Utils.ERR_CYCLE_FORM, sheet.get(2, 0).getType());
+        sheet.set(2, 1, "5");
+        assertEquals("5.0", sheet.value(2, 0));
+        sheet.setLazy(false);
+        assertTrue(sheet.hasValue(1, 0));
+    }
+
+    @Test
+    void testBatchEdit() {
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "=A0+1");
+        sheet.begin();
+        sheet.set(0, 0, "10");
+        sheet.set(1, 0, "=A1*2");
+        sheet.begin();// nested
+        sheet.set(0, 0, "20");
+        sheet.commit();
+        assertTrue(sheet.inBatch());
+        assertEquals("2.0", sheet.value(0, 1));// not recalculated yet
+        sheet.commit();
+        assertFalse(sheet.inBatch());
+        assertEquals("21.0", sheet.value(0, 1));
+        assertEquals("42.0", sheet.value(1, 0));
+        assertThrows(IllegalStateException.class, () -> sheet.commit());
+    }
+
+    @Test
+    void testLargeRangeFunctions() {
+        for (int x = 0; x < 8; x = x + 1) {
+            for (int y = 0; y < 16; y = y + 1) {
+                sheet.set(x, y, "" + (x * 16 + y));// 0..127
+            }
+        }
+        sheet.set(8, 0, "=sum(A0:H15)");
+        sheet.set(8, 1, "=average(A0:H15)");
+        sheet.set(8, 2, "=min(B2:G12)");
+        sheet.set(8, 3, "=max(A0:H15)");
+        assertEquals("8128.0", sheet.value(8, 0));
+        assertEquals("63.5", sheet.value(8, 1));
+        assertEquals("18.0", sheet.value(8, 2));
+        assertEquals("127.0", sheet.value(8, 3));
+        sheet.set(3, 5, "=A0-1000");
+        sheet.set(7, 15, "");
+        assertEquals("" + (8128.0 - 53 - 1000 - 127), sheet.value(8, 0));
+        assertEquals("-1000.0", sheet.value(8, 2));
+        assertEquals("126.0", sheet.value(8, 3));
+    }
+
+    @Test
+    void testLargeRangeHistory() {
+        Ex2Sheet edited = new Ex2Sheet(10, 200);
+        edited.set(0, 0, "=sum(B0:J9)");
+        edited.set(0, 1, "=sum(B0:J199)");// whole blocks of the index
+        edited.set(1, 0, "1e20");
+        edited.set(1, 1, "1");
+        edited.set(2, 100, "1e20");
+        edited.set(3, 100, "1");
+        edited.set(1, 0, "");
+        edited.set(2, 100, "");
+        Ex2Sheet fresh = new Ex2Sheet(10, 200);
+        fresh.set(1, 1, "1");
+        fresh.set(3, 100, "1");
+        fresh.set(0, 0, "=sum(B0:J9)");
+        fresh.set(0, 1, "=sum(B0:J199)");
+        assertEquals("1.0", edited.value(0, 0));// The values of the range only, not the edits before them
+        assertEquals("2.0", edited.value(0, 1));
+        assertEquals(fresh.value(0, 0), edited.value(0, 0));
+        assertEquals(fresh.value(0, 1), edited.value(0, 1));
+    }
+
+    @Test
+    void testIfResultStored() {
+        sheet.set(0, 0, "3");
+        sheet.set(1, 0, "=if(A0>2,big,small)");
+        sheet.set(1, 1, "=if(A0>2,=A0*10,small)");
+        assertEquals("big", sheet.value(1, 0));
+        assertEquals("30.0", sheet.value(1, 1));
+        sheet.set(0, 0, "1");
+        assertEquals("small", sheet.value(1, 0));
+        assertEquals("small", sheet.value(1, 1));
+        assertFalse(sheet.hasValue(1, 1));
+        sheet.set(0, 0, "5");
+        assertEquals("50.0", sheet.value(1, 1));
+        assertEquals(Ex2Utils.IF, sheet.get(1, 1).getType());
+    }
+
+    @Test
+    void testLargeSparseSheet() throws IOException {
+        Ex2Sheet big = new Ex2Sheet(26, 100000);
+        big.set(25, 99999, "7");
+        big.set(0, 95, "=Z99999*2");
+        big.set(1, 0, "=sum(A90:A150)");// a range with three digit rows
+        assertEquals("14.0", big.value(0, 95));
+        assertEquals("14.0", big.value(1, 0));
+        assertEquals("", big.value(3, 3));
+        assertEquals(Ex2Utils.TEXT, big.get(3, 3).getType());
+        big.set(25, 99999, "");
+        assertEquals(Ex2Utils.ERR_FORM, big.value(0, 95));
+        big.set(25, 99999, "1.5");
+        big.set(2, 0, "=sum(D0:D1)");
+        big.set(3, 1, "x");
+        String file = "sparse_test.txt";
+        big.save(file);
+        Ex2Sheet loaded = new Ex2Sheet(26, 100000);
+        loaded.load(file);
+        new java.io.File(file).delete();
+        assertEquals("3.0", loaded.value(1, 0));
+        assertEquals(1, loaded.depth()[1][0] - loaded.depth()[0][95]);
+        loaded.set(3, 0, "7");// the text loaded in D1 is still counted
+        assertEquals(Ex2Utils.FUNC_ERR, loaded.value(2, 0));
+        assertEquals(2, loaded.invalidCells(0, 0, 25, 99999));// D1 and the function error in C0
+    }
+
+    @Test
+    void testHugeSheet() {
+        Ex2Sheet huge = new Ex2Sheet(1000, 100000);// 10^8 cells, only the used pages are allocated
+        huge.set(999, 99999, "5");
+        huge.set(0, 0, "=ALL99999*2");
+        huge.set(1, 0, "=sum(ALL0:ALL99999)");
+        huge.set(500, 50000, "=if(A0>5,big,small)");
+        assertEquals("10.0", huge.value(0, 0));
+        assertEquals("5.0", huge.value(1, 0));
+        assertEquals("big", huge.value(500, 50000));
+        assertEquals(1, huge.depth()[0][0]);
+        assertThrows(IllegalArgumentException.class, () -> new Ex2Sheet(100000, 100000));// more cells than an int index
+        assertThrows(IllegalArgumentException.class, () -> new Ex2Sheet(-1, 5));
+    }
+
+    @Test
+    void testInCycle() {
+        sheet.set(0, 0, "=B0");
+        sheet.set(1, 0, "=C0+1");
+        sheet.set(2, 0, "=A0");// A0 -> B0 -> C0 -> A0
+        sheet.set(3, 0, "=A0*2");// depends on the cycle
+        sheet.set(4, 4, "=E4");
+        assertTrue(sheet.inCycle(0, 0));
+        assertTrue(sheet.inCycle(2, 0));
+        assertFalse(sheet.inCycle(3, 0));
+        assertTrue(sheet.inCycle(4, 4));
+        assertEquals(Ex2Utils.ERR, sheet.depth()[3][0]);// depth() does not tell the two apart
+        assertEquals(2, sheet.cycles().length);
+        sheet.set(1, 0, "=A2");// breaks the cycle
+        assertFalse(sheet.inCycle(0, 0));
+        assertFalse(sheet.inCycle(2, 0));
+        assertEquals(1, sheet.cycles().length);
+        sheet.set(2, 0, "=B0");
+        sheet.set(1, 0, "=A0+C0");// two cycles through B0 (with A0 and with C0), the first one is broken below
+        sheet.set(0, 0, "=5");
+        assertFalse(sheet.inCycle(0, 0));
+        assertTrue(sheet.inCycle(1, 0));
+        assertTrue(sheet.inCycle(2, 0));
+        int[][] cycles = sheet.cycles();
+        assertEquals(2, cycles.length);
+        assertEquals(6, cycles[0].length + cycles[1].length);// {B0, C0} and {E4}
+    }
+
+    @Test
+    void testValidationCache() {
+        sheet.set(0, 0, "1");
+        sheet.set(0, 1, "2");
+        sheet.set(1, 0, "=sum(A0:A5)");
+        sheet.set(2, 0, "=if(A0<A1,=A0+1,=A1)");
+        assertEquals("3.0", sheet.value(1, 0));
+        assertEquals("2.0", sheet.value(2, 0));
+        assertEquals(0, sheet.invalidCells(0, 0, 0, 5));
+        sheet.set(0, 3, "abc");// a text in the range
+        assertEquals(1, sheet.invalidCells(0, 0, 0, 5));
+        assertEquals(Ex2Utils.FUNC_ERR_FORMAT, sheet.get(1, 0).getType());
+        sheet.set(0, 3, "4");
+        assertEquals("7.0", sheet.value(1, 0));
+        sheet.set(0, 1, "=B7+");// an error referred to by the IF
+        assertEquals(Ex2Utils.ERR_WRONG_IF, sheet.get(2, 0).getType());
+        assertEquals(Ex2Utils.FUNC_ERR_FORMAT, sheet.get(1, 0).getType());
+        sheet.set(0, 1, "");// an empty cell is valid in a range, but not in an IF
+        assertEquals("5.0", sheet.value(1, 0));
+        assertEquals(Ex2Utils.ERR_WRONG_IF, sheet.get(2, 0).getType());
+        sheet.set(0, 1, "0");
+        assertEquals("0.0", sheet.value(2, 0));
+        sheet.eval();// the cached validation is kept
+        assertEquals("5.0", sheet.value(1, 0));
+        assertEquals(Ex2Utils.IF, sheet.get(2, 0).getType());
+    }
+
+    @Test
+    void testReduceColumns() {
+        Ex2Sheet big = new Ex2Sheet(3, 200);// columns span several bitmap words
+        java.util.Random r = new java.util.Random(19);
+        for (int x = 0; x < 3; x = x + 1) {
+            for (int y = 0; y < 200; y = y + 1) {
+                int k = r.nextInt(10);
+                if (k == 0) {
+                    big.set(x, y, "text");// masked out
+                } else if (k > 2) {// else empty
+                    big.set(x, y, "" + (r.nextInt(2001) - 1000) / 7.0);// rounded, so the order of the additions shows
+                }
+            }
+        }
+        int[][] ranges = {{0, 0, 2, 199}, {1, 3, 2, 130}, {0, 64, 0, 127}, {2, 5, 2, 5}, {0, 10, 1, 9}};
+        for (int[] q : ranges) {
+            double sum = 0, product = 1, min = Double.MAX_VALUE, max = Double.MIN_VALUE;
+            for (int y = q[1]; y <= q[3]; y = y + 1) {// Row by row, as Range2D did
+                for (int x = q[0]; x <= q[2]; x = x + 1) {
+                    if (big.hasValue(x, y)) {
+                        double v = big.getValue(x, y);
+                        sum += v;
+                        product *= v;
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                }
+            }
+            assertEquals(sum, big.reduce(1, q[0], q[1], q[2], q[3]));// bit for bit
+            assertEquals(product, big.reduce(5, q[0], q[1], q[2], q[3]));
+            assertEquals(min, big.reduce(3, q[0], q[1], q[2], q[3]));
+            assertEquals(max, big.reduce(4, q[0], q[1], q[2], q[3]));
+        }
+        assertEquals(Double.MIN_VALUE, big.reduce(4, 0, 10, 1, 9));// no cells
+        Ex2Sheet small = new Ex2Sheet(2, 2);
+        small.set(0, 0, "1e16");
+        small.set(1, 0, "1");
+        small.set(0, 1, "-1e16");
+        small.set(1, 1, "1");
+        assertEquals(1.0, small.reduce(1, 0, 0, 1, 1));// (1e16 + 1) - 1e16 + 1, row by row as Range2D
+    }
+
+    @Test
+    void testReferenceAfterOutside() {
+        String[][] cells = {{"A3", "=G0*A5"}, {"D4", "=A3"}, {"A5", "=sum(B4:E4)"}};// G0 is out of the sheet, so A3 never reads A5
+        Ex2Sheet batch = new Ex2Sheet(6, 8);
+        batch.begin();
+        for (String[] c : cells) {
+            batch.set(CellEntry.keyX(CellEntry.parse(c[0])), CellEntry.keyY(CellEntry.parse(c[0])), c[1]);
+        }
+        batch.commit();
+        Ex2Sheet eager = new Ex2Sheet(6, 8);
+        for (String[] c : cells) {
+            eager.set(CellEntry.keyX(CellEntry.parse(c[0])), CellEntry.keyY(CellEntry.parse(c[0])), c[1]);
+        }
+        assertEquals(Ex2Utils.FUNC_ERR, batch.value(0, 5));// D4 is an error, so the range is not valid
+        assertEquals(Ex2Utils.FUNC_ERR, eager.value(0, 5));
+        assertEquals(Ex2Utils.ERR_FORM, batch.value(0, 3));
+        batch.eval();
+        assertEquals(Ex2Utils.FUNC_ERR, batch.value(0, 5));
+    }
+
+    @Test
+    void testLazyMatchesEager() {
+        Ex2Sheet lazy = new Ex2Sheet(6, 8), eager = new Ex2Sheet(6, 8);
+        lazy.setLazy(true);
+        String[][] cells = {{"F0", "=F1"}, {"F1", "=if(F0>1,1,2)"}, {"C2", "=A8-(1*F1)"}};// F0 and F1 are a cycle, A8 is out of the sheet
+        for (String[] c : cells) {
+            long key = CellEntry.parse(c[0]);
+            lazy.set(CellEntry.keyX(key), CellEntry.keyY(key), c[1]);
+            eager.set(CellEntry.keyX(key), CellEntry.keyY(key), c[1]);
+        }
+        assertEquals(Ex2Utils.ERR_FORM, lazy.value(2, 2));// Read first, it must not compute F1 out of order
+        assertEquals(Ex2Utils.ERR_CYCLE, lazy.value(5, 1));
+        assertEquals(eager.value(5, 1), lazy.value(5, 1));
+        String[] forms = {"", "3.5", "text", "=%s+%s", "=%s-(1*%s)", "=sum(%s:%s)", "=if(%s>2,%s,no)", "=%s*2"};
+        for (int seed = 0; seed < 50; seed = seed + 1) {
+            java.util.Random r = new java.util.Random(seed);
+            lazy = new Ex2Sheet(6, 8);
+            lazy.setLazy(true);
+            eager = new Ex2Sheet(6, 8);
+            for (int step = 0; step < 40; step = step + 1) {
+                int x = r.nextInt(6), y = r.nextInt(8);
+                String s = String.format(forms[r.nextInt(forms.length)], "" + (char) ('A' + r.nextInt(7)) + r.nextInt(9),
+                        "" + (char) ('A' + r.nextInt(7)) + r.nextInt(9));// Column G and row 8 are out of the sheet
+                lazy.set(x, y, s);
+                eager.set(x, y, s);
+                lazy.value(r.nextInt(6), r.nextInt(8));// Only some cells are demanded between the edits
+            }
+            for (int x = 0; x < 6; x = x + 1) {
+                for (int y = 0; y < 8; y = y + 1) {
+                    assertEquals(eager.value(x, y), lazy.value(x, y), "seed " + seed + " cell " + x + "," + y);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,473 @@
+/**
+ * This class represents a compiled cell formula (a FORM, FUNCTION or IF cell text).
+ * The text is parsed only once (when the cell data is set) into an immutable expression tree,
+ * evaluating the cell later only walks this tree instead of re-parsing the string.
+ * The references of a tree may be relative to an anchor cell (see FormulaTemplates), all the methods then take the anchor,
+ * so copies of the same relative formula (e.g. "=A1*1.4" filled down a column) share a single tree.
+ * A formula compiled directly from its text has absolute references (its anchor is {0, 0}).
+ */
+public class Formula {
+    public static final int NUMBER = 0, REF = 1, NEG = 2, OP = 3, FUNCTION = 4, IF = 5, TEXT = 6;
+    private static final int[] IF_ORDER = {4, 5, 2, 3, 1, 0};// The order evaluateCondition looks for B_OPS: "<=", ">=", "==", "!=", ">", "<"
+
+    private final int kind;// The kind of this node (one of the constants above)
+    private final double number;// NUMBER: the value
+    private final int x, y;// REF: the referenced cell, FUNCTION: the start of the range (relative to the anchor)
+    private final int x2, y2;// FUNCTION: the end of the range (relative to the anchor)
+    private final int op;// OP: index in M_OPS, FUNCTION: index in FUNCTIONS, IF: index in B_OPS
+    private final Formula left, right;// OP: both operands, NEG: the operand (left), IF: both sides of the condition
+    private final Formula ifTrue, ifFalse;// IF: the two branches
+    private final String text;// TEXT: a text branch of an IF
+
+    private Formula(int kind, double number, int x, int y, int x2, int y2, int op, Formula left, Formula right, Formula ifTrue, Formula ifFalse, String text) {
+        this.kind = kind;
+        this.number = number;
+        this.x = x;
+        this.y = y;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.op = op;
+        this.left = left;
+        this.right = right;
+        this.ifTrue = ifTrue;
+        this.ifFalse = ifFalse;
+        this.text = text;
+    }
+
+    private static Formula number(double d) {
+        return new Formula(NUMBER, d, -1, -1, -1, -1, -1, null, null, null, null, null);
+    }
+
+    private static Formula ref(int x, int y) {
+        return new Formula(REF, 0, x, y, -1, -1, -1, null, null, null, null, null);
+    }
+
+    private static Formula text(String s) {
+        return new Formula(TEXT, 0, -1, -1, -1, -1, -1, null, null, null, null, s);
+    }
+
+    /**
+     * @return The kind of this formula (NUMBER, REF, NEG, OP, FUNCTION, IF or TEXT).
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The text of a TEXT formula (an IF branch which is not a formula), null for the other kinds.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Compiles the text of a cell (including the leading "=") according to its type.
+     *
+     * @param line The cell text.
+     * @param type The type of the cell (FORM, FUNCTION or IF as defined in Ex2Utils).
+     * @return The compiled formula, or null if the text can not be compiled.
+     */
+    public static Formula compile(String line, int type) {
+        Formula ans = null;
+        if (type == Ex2Utils.FORM) {
+            ans = compileForm(Ex2Sheet.removeSpaces(line.substring(1)));
+        } else if (type == Ex2Utils.FUNCTION) {
+            ans = compileFunction(line);
+        } else if (type == Ex2Utils.IF) {
+            ans = compileIf(line);
+        }
+        return ans;
+    }
+
+    /**
+     * Compiles a mathematical expression (without the "=").
+     * Splits the expression the same way the formula validation does: by the last operator with the lowest priority.
+     *
+     * @param form The expression string.
+     * @return The compiled expression, or null if it is not a valid expression.
+     */
+    public static Formula compileForm(String form) {
+        if (form == null) {
+            return null;
+        }
+        while (Ex2Sheet.canRemoveB(form)) {
+            form = Ex2Sheet.removeB(form);
+        }
+        CellEntry c = new CellEntry(form);
+        if (c.isValid()) {
+            return ref(c.getX(), c.getY());// A cell reference
+        }
+        if (Ex2Sheet.isNumber(form)) {
+            return number(NumberScanner.parseDouble(form, 0));
+        }
+        int ind = Ex2Sheet.findLastOp(form);// Find the last operator position
+        if (ind == -1) {
+            return null;
+        }
+        if (ind == 0) {  // the case of -1, or -(1+1)
+            char c1 = form.charAt(0);
+            if (c1 != '-' && c1 != '+') {
+                return null;
+            }
+            Formula f = compileForm(form.substring(1));
+            if (f == null || c1 == '+') {
+                return f;
+            }
+            return new Formula(NEG, 0, -1, -1, -1, -1, -1, f, null, null, null, null);
+        }
+        Formula f1 = compileForm(form.substring(0, ind));
+        Formula f2 = compileForm(form.substring(ind + 1));
+        if (f1 == null || f2 == null) {
+            return null;
+        }
+        int opInd = Ex2Sheet.opCode(form.substring(ind, ind + 1));
+        return new Formula(OP, 0, -1, -1, -1, -1, opInd, f1, f2, null, null, null);
+    }
+
+    /**
+     * Compiles a range function such as "=sum(A1:B3)".
+     *
+     * @param line The function string.
+     * @return The compiled function, or null if it is not in a valid function format.
+     */
+    public static Formula compileFunction(String line) {
+        if (line == null || line.isEmpty() || !Range2D.ValidFunction(line)) {
+            return null;
+        }
+        String name = line.substring(1, line.indexOf("(")).toLowerCase();
+        int fn = -1;
+        for (int i = 0; i < Ex2Utils.FUNCTIONS.length; i = i + 1) {
+            if (name.equals(Ex2Utils.FUNCTIONS[i])) {
+                fn = i;
+            }
+        }
+        String range = Range2D.findStartAndEndValid(line);
+        int index = range.indexOf(":");
+        CellEntry start = new CellEntry(range.substring(0, index));
+        CellEntry end = new CellEntry(range.substring(index + 1));
+        return new Formula(FUNCTION, 0, start.getX(), start.getY(), end.getX(), end.getY(), fn, null, null, null, null, null);
+    }
+
+    /**
+     * Compiles an IF function such as "=if(A1>5,=B1*2,text)".
+     * The condition is split by its comparison operator and both branches are compiled.
+     *
+     * @param line The IF function string.
+     * @return The compiled IF, or null if it can not be compiled.
+     */
+    public static Formula compileIf(String line) {
+        Formula ans = null;
+        try {
+            String condition = Ex2Sheet.ifCondition(line);
+            int bop = -1, split = -1;
+            for (int i = 0; i < IF_ORDER.length && bop == -1; i = i + 1) {// Same priority as evaluateCondition
+                split = condition.indexOf(Ex2Utils.B_OPS[IF_ORDER[i]]);
+                if (split != -1) {
+                    bop = IF_ORDER[i];
+                }
+            }
+            if (bop == -1) {
+                return null;
+            }
+            Formula f1 = compileSide(condition.substring(0, split));
+            Formula f2 = compileSide(condition.substring(split + Ex2Utils.B_OPS[bop].length()));
+            Formula t = compileBranch(Ex2Sheet.ifTrue(line));
+            Formula f = compileBranch(Ex2Sheet.ifFalse(line));
+            if (f1 != null && f2 != null && t != null && f != null) {
+                ans = new Formula(IF, 0, -1, -1, -1, -1, bop, f1, f2, t, f, null);
+            }
+        } catch (Exception e) {
+            ;
+        }
+        return ans;
+    }
+
+    private static Formula compileSide(String side) {
+        if (side.startsWith("=")) {
+            side = side.substring(1);
+        }
+        return compileForm(side);
+    }
+
+    private static Formula compileBranch(String line) {
+        if (line.isEmpty()) {
+            return null;
+        }
+        if (Ex2Sheet.isNumber(line)) {
+            return number(NumberScanner.parseDouble(line, 0));
+        }
+        if (SCell.isFunction(line)) {
+            return compileFunction(line);
+        }
+        if (SCell.BasicIsForm(line)) {
+            return compileForm(line.substring(1));
+        }
+        if (SCell.isIf(line)) {
+            return compileIf(line);
+        }
+        return text(line);
+    }
+
+    /**
+     * Moves the references of this formula so they are relative to an anchor cell (R1C1 style):
+     * the anchored methods of the returned formula, given that anchor, behave as the methods of this formula.
+     *
+     * @param ax The column of the anchor.
+     * @param ay The row of the anchor.
+     * @return The relative formula (this formula if it has no references).
+     */
+    public Formula relative(int ax, int ay) {
+        Formula ans = this;
+        if (kind == REF) {
+            ans = ref(x - ax, y - ay);
+        } else if (kind == FUNCTION) {
+            ans = new Formula(FUNCTION, 0, x - ax, y - ay, x2 - ax, y2 - ay, op, null, null, null, null, null);
+        } else if (kind == NEG) {
+            ans = new Formula(NEG, 0, -1, -1, -1, -1, -1, left.relative(ax, ay), null, null, null, null);
+        } else if (kind == OP) {
+            ans = new Formula(OP, 0, -1, -1, -1, -1, op, left.relative(ax, ay), right.relative(ax, ay), null, null, null);
+        } else if (kind == IF) {
+            ans = new Formula(IF, 0, -1, -1, -1, -1, op, left.relative(ax, ay), right.relative(ax, ay), ifTrue.relative(ax, ay), ifFalse.relative(ax, ay), null);
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the references of this formula, in the order they appear in the text, keeping the ranges of functions as ranges.
+     *
+     * @return The references, 4 ints {x1, y1, x2, y2} per reference (see RefLexer).
+     */
+    public int[] ranges() {
+        return ranges(0, 0);
+    }
+
+    /**
+     * Computes the references of this formula for the given anchor (see ranges()).
+     *
+     * @param ax The column of the anchor.
+     * @param ay The row of the anchor.
+     * @return The references, 4 ints {x1, y1, x2, y2} per reference (see RefLexer).
+     */
+    public int[] ranges(int ax, int ay) {
+        int[] ans = new int[4 * countRanges()];
+        fillRanges(ans, 0, ax, ay);
+        return ans;
+    }
+
+    private int countRanges() {
+        int ans = 0;
+        if (kind == REF || kind == FUNCTION) {
+            ans = 1;
+        } else if (kind == NEG) {
+            ans = left.countRanges();
+        } else if (kind == OP) {
+            ans = left.countRanges() + right.countRanges();
+        } else if (kind == IF) {
+            ans = left.countRanges() + right.countRanges() + ifTrue.countRanges() + ifFalse.countRanges();
+        }
+        return ans;
+    }
+
+    private int fillRanges(int[] ans, int i, int ax, int ay) {
+        if (kind == REF) {
+            ans[i++] = ax + x;
+            ans[i++] = ay + y;
+            ans[i++] = ax + x;
+            ans[i++] = ay + y;
+        } else if (kind == FUNCTION) {
+            ans[i++] = ax + x;
+            ans[i++] = ay + y;
+            ans[i++] = ax + x2;
+            ans[i++] = ay + y2;
+        } else if (kind == NEG) {
+            i = left.fillRanges(ans, i, ax, ay);
+        } else if (kind == OP) {
+            i = left.fillRanges(ans, i, ax, ay);
+            i = right.fillRanges(ans, i, ax, ay);
+        } else if (kind == IF) {
+            i = left.fillRanges(ans, i, ax, ay);
+            i = right.fillRanges(ans, i, ax, ay);
+            i = ifTrue.fillRanges(ans, i, ax, ay);
+            i = ifFalse.fillRanges(ans, i, ax, ay);
+        }
+        return i;
+    }
+
+    /**
+     * Checks if this formula has a numeric value over the given sheet: all the cells it refers to hold numbers.
+     * The referenced cells are evaluated (if they were not already evaluated in this pass), from left to right
+     * up to the first one which has no value: the dependency graph (see Ex2Sheet) orders a cell only after the cells
+     * it refers to up to its first reference out of the sheet, so no cell after such a reference is read.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @return True if compute(sheet) gives a value, false if not (e.g., a reference to a text or an error cell).
+     */
+    public boolean computable(Ex2Sheet sheet) {
+        return computable(sheet, 0, 0);
+    }
+
+    /**
+     * Checks if this formula has a numeric value over the given sheet (see computable(sheet)), for the given anchor.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @param ax    The column of the anchor.
+     * @param ay    The row of the anchor.
+     * @return True if compute(sheet, ax, ay) gives a value.
+     */
+    public boolean computable(Ex2Sheet sheet, int ax, int ay) {
+        boolean ans = true;
+        if (kind == REF) {
+            ans = sheet.isIn(ax + x, ay + y) && sheet.evalNumber(ax + x, ay + y);// Evaluate referenced cell
+        } else if (kind == NEG) {
+            ans = left.computable(sheet, ax, ay);
+        } else if (kind == OP) {
+            ans = left.computable(sheet, ax, ay) && right.computable(sheet, ax, ay);// Stops at the first operand without a value
+        } else if (kind == IF) {
+            ans = branch(sheet, ax, ay).computable(sheet, ax, ay);
+        } else if (kind == TEXT) {
+            ans = false;
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the numeric value of this formula over the given sheet.
+     * Should only be called if computable(sheet) is true.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @return The computed value.
+     */
+    public double compute(Ex2Sheet sheet) {
+        return compute(sheet, 0, 0);
+    }
+
+    /**
+     * Computes the numeric value of this formula over the given sheet, for the given anchor.
+     * Should only be called if computable(sheet, ax, ay) is true.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @param ax    The column of the anchor.
+     * @param ay    The row of the anchor.
+     * @return The computed value.
+     */
+    public double compute(Ex2Sheet sheet, int ax, int ay) {
+        double ans = 0;
+        if (kind == NUMBER) {
+            ans = number;
+        } else if (kind == REF) {
+            ans = sheet.getValue(ax + x, ay + y);
+        } else if (kind == NEG) {
+            ans = -left.compute(sheet, ax, ay);
+        } else if (kind == OP) {
+            double a1 = left.compute(sheet, ax, ay);
+            double a2 = right.compute(sheet, ax, ay);
+            if (op == 0) {
+                ans = a1 + a2;
+            }
+            if (op == 1) {
+                ans = a1 - a2;
+            }
+            if (op == 2) {
+                ans = a1 * a2;
+            }
+            if (op == 3) {
+                ans = a1 / a2;
+            }
+        } else if (kind == FUNCTION && op >= 1 && op <= 4 && x <= x2 && y <= y2 && sheet.indexed(ax + x, ay + y, ax + x2, ay + y2)) {
+            ans = sheet.aggregate(op, ax + x, ay + y, ax + x2, ay + y2);// sum, average, min and max are answered by the aggregate index
+        } else if (kind == FUNCTION) {
+            Range2D range = new Range2D(new CellEntry(ax + x, ay + y), new CellEntry(ax + x2, ay + y2));
+            range.updateValue(sheet);
+            ans = range.evaluateFunction(op);
+        } else if (kind == IF) {
+            ans = branch(sheet, ax, ay).compute(sheet, ax, ay);
+        }
+        return ans;
+    }
+
+    /**
+     * Evaluates the condition of this IF formula.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @return True if the condition holds, false otherwise (or if it can not be computed).
+     */
+    public boolean condition(Ex2Sheet sheet) {
+        return condition(sheet, 0, 0);
+    }
+
+    /**
+     * Evaluates the condition of this IF formula, for the given anchor.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @param ax    The column of the anchor.
+     * @param ay    The row of the anchor.
+     * @return True if the condition holds, false otherwise (or if it can not be computed).
+     */
+    public boolean condition(Ex2Sheet sheet, int ax, int ay) {
+        if (!(left.computable(sheet, ax, ay) && right.computable(sheet, ax, ay))) {
+            return false;
+        }
+        double a1 = left.compute(sheet, ax, ay);
+        double a2 = right.compute(sheet, ax, ay);
+        String bop = Ex2Utils.B_OPS[op];
+        if (bop.equals("<=")) {
+            return a1 <= a2;
+        }
+        if (bop.equals(">=")) {
+            return a1 >= a2;
+        }
+        if (bop.equals("==")) {
+            return Double.compare(a1, a2) == 0;
+        }
+        if (bop.equals("!=")) {
+            return Double.compare(a1, a2) != 0;
+        }
+        if (bop.equals(">")) {
+            return a1 > a2;
+        }
+        return a1 < a2;
+    }
+
+    /**
+     * Finds the branch this IF formula results in: the branch chosen by the condition (nested IFs are followed).
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @return The chosen branch, a TEXT formula or a numeric one.
+     */
+    public Formula branch(Ex2Sheet sheet) {
+        return branch(sheet, 0, 0);
+    }
+
+    /**
+     * Finds the branch this IF formula results in (see branch(sheet)), for the given anchor.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @param ax    The column of the anchor.
+     * @param ay    The row of the anchor.
+     * @return The chosen branch (relative to the same anchor).
+     */
+    public Formula branch(Ex2Sheet sheet, int ax, int ay) {
+        Formula ans = this;
+        while (ans.kind == IF) {
+            ans = ans.condition(sheet, ax, ay) ? ans.ifTrue : ans.ifFalse;
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the result of this IF formula: the value of the branch chosen by the condition.
+     *
+     * @param sheet The sheet the referenced cells are taken from.
+     * @return The result as an Object (Double for numeric branches, String for text branches), may be null.
+     */
+    public Object computeIf(Ex2Sheet sheet) {
+        Formula branch = branch(sheet);
+        if (branch.kind == TEXT) {
+            return branch.text;
+        }
+        if (!branch.computable(sheet)) {
+            return null;
+        }
+        return branch.compute(sheet);
+    }
+}
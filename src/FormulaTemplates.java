@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class shares the compiled formulas of copied (relative) formulas.
+ * A cell text is normalized into a relative template (see RefLexer.template), and all the cells with the same template
+ * use the same compiled tree, with their own coordinates as its anchor (see Formula.relative).
+ * So "=A1*1.4" filled down a column is compiled once, instead of once per cell.
+ * A text is shared only if every reference the lexer finds in it is a reference of its compiled formula (in the same order),
+ * e.g. "=1e5" (a number which looks like the cell E5) or an IF text branch such as "A1" are compiled for each cell apart.
+ */
+public class FormulaTemplates {
+    public static final int MAX_TEMPLATES = 1 << 16;// The cache is dropped when it grows beyond this size
+    private static final ConcurrentHashMap<String, Formula> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the compiled formula of a cell text, relative to the cell.
+     *
+     * @param line The cell text.
+     * @param type The type of the cell (FORM, FUNCTION or IF as defined in Ex2Utils).
+     * @param ax   The column of the cell (the anchor).
+     * @param ay   The row of the cell (the anchor).
+     * @return The compiled relative formula (possibly shared with other cells), or null if the text can not be compiled.
+     */
+    public static Formula compile(String line, int type, int ax, int ay) {
+        if (type != Ex2Utils.FORM && type != Ex2Utils.FUNCTION && type != Ex2Utils.IF) {
+            return null;
+        }
+        if (line.indexOf('\u0001') != -1 || line.indexOf('\u0002') != -1) {// Not a template
+            return relative(Formula.compile(line, type), ax, ay);
+        }
+        String key = type + RefLexer.template(line, ax, ay);
+        Formula ans = templates.get(key);
+        if (ans != null) {
+            return ans;
+        }
+        Formula f = Formula.compile(line, type);
+        if (f == null) {
+            return null;
+        }
+        ans = f.relative(ax, ay);
+        if (Arrays.equals(f.ranges(), RefLexer.scan(line))) {// The template describes all the references
+            if (templates.size() >= MAX_TEMPLATES) {
+                templates.clear();
+            }
+            templates.put(key, ans);
+        }
+        return ans;
+    }
+
+    /**
+     * @return The number of cached templates.
+     */
+    public static int size() {
+        return templates.size();
+    }
+
+    private static Formula relative(Formula f, int ax, int ay) {
+        if (f == null) {
+            return null;
+        }
+        return f.relative(ax, ay);
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FormulaTest {
+    private Ex2Sheet sheet;
+
+    @BeforeEach
+    void setUp() {
+        sheet = new Ex2Sheet(9, 17);
+    }
+
+    @Test
+    void testCompileForm() {
+        assertEquals(Formula.OP, Formula.compileForm("(5+3)*2").getKind());
+        assertEquals(Formula.NUMBER, Formula.compileForm("((4.5))").getKind());
+        assertEquals(Formula.REF, Formula.compileForm("a3").getKind());
+        assertEquals(Formula.NEG, Formula.compileForm("-(1+1)").getKind());
+        assertNull(Formula.compileForm("5++3"));
+        assertNull(Formula.compileForm("Hello+3"));
+        assertNull(Formula.compileForm(""));
+    }
+
+    @Test
+    void testCompute() {
+        assertEquals(16.0, Formula.compileForm("(5+3)*2").compute(sheet));
+        assertEquals(5.0, Formula.compileForm("-5+10").compute(sheet));
+        assertEquals(-2.0, Formula.compileForm("-(1+1)").compute(sheet));
+        assertEquals(7.0, Formula.compileForm("1+2*3").compute(sheet));
+        assertEquals(1.0, Formula.compileForm("4-2-1").compute(sheet));
+        sheet.set(0, 3, "5");
+        assertEquals(25.0, Formula.compileForm("a3*5").compute(sheet));
+        assertTrue(Formula.compileForm("a3*5").computable(sheet));
+        assertFalse(Formula.compileForm("a4*5").computable(sheet));// an empty cell
+        assertFalse(Formula.compileForm("Z50").computable(sheet));// out of this sheet
+    }
+
+    @Test
+    void testCompileAndComputeFunction() {
+        assertNull(Formula.compileFunction("=max(a0,a1)"));
+        Formula f = Formula.compileFunction("=SUM(A0:B1)");
+        assertEquals(Formula.FUNCTION, f.getKind());
+        sheet.set(0, 0, "2");
+        sheet.set(1, 1, "=A0*3");
+        assertEquals(8.0, f.compute(sheet));
+        assertEquals(6.0, Formula.compileFunction("=max(A0:B1)").compute(sheet));
+    }
+
+    @Test
+    void testCompileIf() {
+        assertNull(Formula.compileIf("=if(5,10,20)"));
+        Formula f = Formula.compileIf("=if(A0>=2,=A0*10,small)");
+        assertEquals(Formula.IF, f.getKind());
+        sheet.set(0, 0, "2");
+        assertEquals(20.0, f.computeIf(sheet));
+        sheet.set(0, 0, "1");
+        assertEquals("small", f.computeIf(sheet));
+        assertEquals(100.0, Formula.compileIf("=if(10>5,=if(2<3,100,200),300)").computeIf(sheet));
+    }
+
+    @Test
+    void testCompiledOnSetData() {
+        SCell cell = new SCell("=1+2");
+        assertEquals(Formula.OP, cell.getFormula().getKind());
+        cell.setData("=sum(A0:A3)");
+        assertEquals(Formula.FUNCTION, cell.getFormula().getKind());
+        cell.setData("Hello");
+        assertNull(cell.getFormula());
+    }
+
+    @Test
+    void testSharedTemplates() {
+        SCell b1 = new SCell("=A1*1.4", 1, 1);
+        SCell b2 = new SCell("=A2*1.4", 1, 2);
+        assertSame(b1.getFormula(), b2.getFormula());// compiled once
+        assertArrayEquals(new int[]{0, 2, 0, 2}, b2.getFormula().ranges(1, 2));
+        assertNotSame(new SCell("=1e5", 0, 0).getFormula(), new SCell("=1e6", 0, 1).getFormula());// numbers, not the cells E5 and E6
+        assertNotSame(new SCell("=if(A1>0,A1,=A1)", 1, 1).getFormula(), new SCell("=if(A2>0,A2,=A2)", 1, 2).getFormula());// a text branch
+        Ex2Sheet sheet = new Ex2Sheet(3, 10);
+        for (int y = 0; y < 10; y = y + 1) {
+            sheet.set(0, y, "" + y);
+            sheet.set(1, y, "=" + CellEntry.name(0, y) + "*2");
+            sheet.set(2, y, "=sum(" + CellEntry.name(0, 0) + ":" + CellEntry.name(1, y) + ")");
+        }
+        assertEquals("18.0", sheet.value(1, 9));
+        assertEquals("135.0", sheet.value(2, 9));// a fixed start (A0) is a different template in every row
+        assertEquals("3.0", sheet.value(2, 1));
+    }
+}
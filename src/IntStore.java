@@ -0,0 +1,105 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * This class stores an int for every cell of a spreadsheet (by the cell index, see Ex2Sheet), 0 for all the cells at first.
+ * The cells are split into pages of PAGE cells, a page is allocated when a cell in it is first set to a value other than 0,
+ * so the cells which were never set cost no memory (as the empty regions of a CellStore).
+ * Different cells may be set concurrently: a page is installed atomically, and or / and update a cell atomically.
+ */
+public class IntStore {
+    public static final int SHIFT = 12;// A cell is in page i >>> SHIFT
+    public static final int PAGE = 1 << SHIFT;// The number of cells in a page
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(int[][].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private final int size;
+    private final int[][] pages;
+
+    /**
+     * Creates a store where every cell is 0.
+     *
+     * @param size The number of cells.
+     */
+    public IntStore(int size) {
+        this.size = size;
+        pages = new int[size / PAGE + 1][];
+    }
+
+    /**
+     * @return The number of cells in this store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i The index of the cell.
+     * @return The value of the cell.
+     */
+    public int get(int i) {
+        int[] page = pages[i >>> SHIFT];
+        if (page == null) {
+            return 0;
+        }
+        return page[i & (PAGE - 1)];
+    }
+
+    /**
+     * Sets the value of a cell.
+     *
+     * @param i The index of the cell.
+     * @param v The value.
+     */
+    public void set(int i, int v) {
+        int[] page = pages[i >>> SHIFT];
+        if (page == null) {
+            if (v == 0) {
+                return;
+            }
+            page = page(i >>> SHIFT);
+        }
+        page[i & (PAGE - 1)] = v;
+    }
+
+    /**
+     * Sets bits of the value of a cell, atomically.
+     *
+     * @param i    The index of the cell.
+     * @param bits The bits to set.
+     */
+    public void or(int i, int bits) {
+        int[] page = pages[i >>> SHIFT];
+        if (page == null) {
+            page = page(i >>> SHIFT);
+        }
+        INTS.getAndBitwiseOr(page, i & (PAGE - 1), bits);
+    }
+
+    /**
+     * Clears bits of the value of a cell, atomically.
+     *
+     * @param i    The index of the cell.
+     * @param bits The bits to clear.
+     */
+    public void clear(int i, int bits) {
+        int[] page = pages[i >>> SHIFT];
+        if (page != null) {
+            INTS.getAndBitwiseAnd(page, i & (PAGE - 1), ~bits);
+        }
+    }
+
+    /**
+     * Sets all the cells to 0 (the pages are dropped).
+     */
+    public void clear() {
+        for (int p = 0; p < pages.length; p = p + 1) {
+            pages[p] = null;
+        }
+    }
+
+    private int[] page(int p) {// Installs a new page, unless another thread did it first
+        int[] page = new int[PAGE];
+        int[] old = (int[]) PAGES.compareAndExchange(pages, p, (int[]) null, page);
+        return old == null ? page : old;
+    }
+}
@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class IntStoreTest {
+
+    @Test
+    void testSetAndGet() {
+        IntStore store = new IntStore(3 * IntStore.PAGE + 5);
+        assertEquals(0, store.get(IntStore.PAGE + 7));
+        store.set(IntStore.PAGE + 7, 42);
+        store.set(3 * IntStore.PAGE + 4, -1);// the last, short page
+        store.set(5, 0);// 0 does not allocate a page
+        assertEquals(42, store.get(IntStore.PAGE + 7));
+        assertEquals(-1, store.get(3 * IntStore.PAGE + 4));
+        assertEquals(0, store.get(5));
+        store.or(9, 6);
+        store.or(9, 1);
+        store.clear(9, 2);
+        assertEquals(5, store.get(9));
+        store.clear();
+        assertEquals(0, store.get(9));
+        assertEquals(0, store.get(IntStore.PAGE + 7));
+    }
+
+    @Test
+    void testConcurrentPages() throws InterruptedException {
+        IntStore store = new IntStore(4 * IntStore.PAGE);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t = t + 1) {
+            int bit = 1 << t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < store.size(); i = i + 1) {// Every thread installs the pages it misses
+                    store.or(i, bit);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < store.size(); i = i + 1) {
+            assertEquals(15, store.get(i));
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * This class recognizes and parses numbers without using exceptions.
+ * It accepts exactly the strings Double.parseDouble (or Integer.parseInt) accepts, with a hand written scan,
+ * so a text which is not a number costs a few char comparisons instead of a NumberFormatException.
+ * Short decimal numbers are converted directly (exactly), the other valid numbers are passed to Double.parseDouble.
+ */
+public class NumberScanner {
+    private static final double[] POW10 = new double[23];// The powers of 10 which are exact doubles
+    private static final long MAX_EXACT = 1L << 53;
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i = i + 1) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Checks if a string is a number, as accepted by Double.parseDouble.
+     *
+     * @param s The string.
+     * @return True if the string is a number.
+     */
+    public static boolean isNumber(String s) {
+        return s != null && scan(s) != INVALID_SCAN;
+    }
+
+    /**
+     * Parses a number, as Double.parseDouble does.
+     *
+     * @param s       The string.
+     * @param invalid The value to return if the string is not a number.
+     * @return The number, or invalid if the string is not a number.
+     */
+    public static double parseDouble(String s, double invalid) {
+        if (s == null) {
+            return invalid;
+        }
+        long scan = scan(s);
+        if (scan == INVALID_SCAN) {
+            return invalid;
+        }
+        if (scan >= 0) {// A short decimal number, mantissa and scale were packed by scan
+            double m = scan >>> 8;
+            int scale = (int) (scan & 0xff) - POW10.length;
+            if (scale >= 0) {
+                m = m / POW10[scale];
+            } else {
+                m = m * POW10[-scale];
+            }
+            if (negative(s)) {
+                m = -m;
+            }
+            return m;
+        }
+        return Double.parseDouble(s);// A valid number with too many digits, a big exponent, NaN, Infinity or hex
+    }
+
+    /**
+     * Checks if a string is an integer, as accepted by Integer.parseInt (an optional sign and ASCII digits, within the int range).
+     *
+     * @param s The string.
+     * @return True if the string is an int.
+     */
+    public static boolean isInteger(String s) {
+        if (s == null || s.isEmpty()) {
+            return false;
+        }
+        int i = 0;
+        if (s.charAt(0) == '-' || s.charAt(0) == '+') {
+            i = 1;
+        }
+        if (i == s.length()) {
+            return false;
+        }
+        long v = 0;
+        for (; i < s.length(); i = i + 1) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            v = v * 10 + (c - '0');
+            if (v > 1L + Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return v <= Integer.MAX_VALUE || s.charAt(0) == '-';
+    }
+
+    /**
+     * Parses an integer, as Integer.parseInt does.
+     *
+     * @param s       The string.
+     * @param invalid The value to return if the string is not an int.
+     * @return The int, or invalid if the string is not an int.
+     */
+    public static int parseInt(String s, int invalid) {
+        if (!isInteger(s)) {
+            return invalid;
+        }
+        long v = 0;
+        int i = 0;
+        if (s.charAt(0) == '-' || s.charAt(0) == '+') {
+            i = 1;
+        }
+        for (; i < s.length(); i = i + 1) {
+            v = v * 10 + (s.charAt(i) - '0');
+        }
+        if (s.charAt(0) == '-') {
+            v = -v;
+        }
+        return (int) v;
+    }
+
+    private static final long INVALID_SCAN = -1, OTHER_SCAN = -2;
+
+    /**
+     * Validates a number by the grammar of Double.parseDouble:
+     * optional white space, an optional sign, then NaN, Infinity, a hex number,
+     * or digits with an optional '.' (at least one digit) and an optional exponent, then an optional f/F/d/D suffix.
+     *
+     * @param s The string.
+     * @return INVALID_SCAN if it is not a number, OTHER_SCAN if it is a number which should be converted by Double.parseDouble,
+     * otherwise the exact mantissa (shifted left by 8) and the scale (plus 23) of a short decimal number.
+     */
+    private static long scan(String s) {
+        int from = 0, to = s.length();
+        while (from < to && s.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        int i = from;
+        if (i < to && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+        if (i == to) {
+            return INVALID_SCAN;
+        }
+        if (s.startsWith("NaN", i) || s.startsWith("Infinity", i)) {
+            int len = 3;
+            if (s.charAt(i) == 'I') {
+                len = 8;
+            }
+            if (i + len == to) {
+                return OTHER_SCAN;
+            }
+            return INVALID_SCAN;
+        }
+        if (s.charAt(i) == '0' && i + 1 < to && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            return hex(s, i + 2, to);
+        }
+        long mantissa = 0;
+        int digits = 0, significant = 0, fraction = 0;
+        boolean exact = true;
+        while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            if (significant > 0 || s.charAt(i) != '0') {
+                significant++;
+            }
+            if (significant <= 18) {
+                mantissa = mantissa * 10 + (s.charAt(i) - '0');
+            } else {
+                exact = false;
+            }
+            digits++;
+            i++;
+        }
+        if (i < to && s.charAt(i) == '.') {
+            i++;
+            while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                if (significant > 0 || s.charAt(i) != '0') {
+                    significant++;
+                }
+                if (significant <= 18) {
+                    mantissa = mantissa * 10 + (s.charAt(i) - '0');
+                    fraction++;
+                } else {
+                    exact = false;
+                }
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) {
+            return INVALID_SCAN;
+        }
+        int exponent = 0;
+        if (i < to && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            boolean minus = false;
+            if (i < to && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                minus = s.charAt(i) == '-';
+                i++;
+            }
+            int start = i;
+            while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                if (exponent < 1000) {
+                    exponent = exponent * 10 + (s.charAt(i) - '0');
+                } else {
+                    exact = false;
+                }
+                i++;
+            }
+            if (i == start) {
+                return INVALID_SCAN;
+            }
+            if (minus) {
+                exponent = -exponent;
+            }
+        }
+        if (i < to && "fFdD".indexOf(s.charAt(i)) != -1) {
+            i++;
+        }
+        if (i != to) {
+            return INVALID_SCAN;
+        }
+        int scale = fraction - exponent;
+        if (!exact || mantissa > MAX_EXACT || scale >= POW10.length || scale <= -POW10.length) {
+            return OTHER_SCAN;
+        }
+        return (mantissa << 8) | (scale + POW10.length);
+    }
+
+    private static long hex(String s, int i, int to) {// The digits of a hex number: 0x1.8p3, the binary exponent is required
+        int digits = 0;
+        while (i < to && Character.digit(s.charAt(i), 16) != -1 && s.charAt(i) < 128) {
+            digits++;
+            i++;
+        }
+        if (i < to && s.charAt(i) == '.') {
+            i++;
+            while (i < to && Character.digit(s.charAt(i), 16) != -1 && s.charAt(i) < 128) {
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0 || i == to || (s.charAt(i) != 'p' && s.charAt(i) != 'P')) {
+            return INVALID_SCAN;
+        }
+        i++;
+        if (i < to && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+        int start = i;
+        while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == start) {
+            return INVALID_SCAN;
+        }
+        if (i < to && "fFdD".indexOf(s.charAt(i)) != -1) {
+            i++;
+        }
+        if (i != to) {
+            return INVALID_SCAN;
+        }
+        return OTHER_SCAN;
+    }
+
+    private static boolean negative(String s) {
+        int i = 0;
+        while (s.charAt(i) <= ' ') {
+            i++;
+        }
+        return s.charAt(i) == '-';
+    }
+}
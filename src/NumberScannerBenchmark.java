@@ -0,0 +1,92 @@
+import java.util.Random;
+
+/**
+ * A small benchmark of NumberScanner against the exception based number check it replaced.
+ * It builds the cell texts of a mixed sheet (numbers, plain texts and formulas), then times
+ * checking and parsing all of them both ways, and finally times filling and evaluating an Ex2Sheet with them.
+ * Run: java NumberScannerBenchmark [columns] [rows] [rounds]
+ */
+public class NumberScannerBenchmark {
+
+    /** The main function for running the benchmark */
+    public static void main(String[] a) {
+        int width = 26, height = 2000, rounds = 20;
+        if (a.length >= 3) {
+            width = Integer.parseInt(a[0]);
+            height = Integer.parseInt(a[1]);
+            rounds = Integer.parseInt(a[2]);
+        }
+        String[] cells = mixedCells(width, height, new Random(15));
+        double sink = 0;
+        for (int w = 0; w < 3; w = w + 1) {// warm up both ways
+            sink += withExceptions(cells) + withScanner(cells);
+        }
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r = r + 1) {
+            sink += withExceptions(cells);
+        }
+        long t1 = System.nanoTime();
+        for (int r = 0; r < rounds; r = r + 1) {
+            sink += withScanner(cells);
+        }
+        long t2 = System.nanoTime();
+        System.out.println(cells.length + " cells, " + rounds + " rounds (checksum " + sink + ")");
+        System.out.println("try / catch parsing:  " + (t1 - t0) / 1000000 + " ms");
+        System.out.println("NumberScanner:        " + (t2 - t1) / 1000000 + " ms");
+        long t3 = System.nanoTime();
+        Ex2Sheet sheet = new Ex2Sheet(width, height);
+        sheet.begin();
+        for (int x = 0; x < width; x = x + 1) {
+            for (int y = 0; y < height; y = y + 1) {
+                sheet.set(x, y, cells[x * height + y]);
+            }
+        }
+        sheet.commit();
+        sheet.eval();
+        long t4 = System.nanoTime();
+        System.out.println("Ex2Sheet fill + eval: " + (t4 - t3) / 1000000 + " ms");
+    }
+
+    /**
+     * Builds the cell texts of a mixed sheet: about a third numbers, a third texts and a third formulas.
+     *
+     * @param width  The number of columns.
+     * @param height The number of rows.
+     * @param r      The random source.
+     * @return The cell texts, by the index x * height + y.
+     */
+    public static String[] mixedCells(int width, int height, Random r) {
+        String[] ans = new String[width * height];
+        for (int i = 0; i < ans.length; i = i + 1) {
+            int kind = r.nextInt(3);
+            if (kind == 0) {
+                ans[i] = "" + (r.nextInt(200000) - 100000) / 100.0;
+            } else if (kind == 1) {
+                ans[i] = "item" + r.nextInt(1000);
+            } else {
+                ans[i] = "=" + CellEntry.name(r.nextInt(width), r.nextInt(height)) + "+" + r.nextInt(10);
+            }
+        }
+        return ans;
+    }
+
+    private static double withExceptions(String[] cells) {
+        double ans = 0;
+        for (int i = 0; i < cells.length; i = i + 1) {
+            try {
+                ans += Double.parseDouble(cells[i]);
+            } catch (Exception e) {
+                ;
+            }
+        }
+        return ans;
+    }
+
+    private static double withScanner(String[] cells) {
+        double ans = 0;
+        for (int i = 0; i < cells.length; i = i + 1) {
+            ans += NumberScanner.parseDouble(cells[i], 0);
+        }
+        return ans;
+    }
+}
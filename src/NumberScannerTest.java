@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+class NumberScannerTest {
+    private static final String[] SAMPLES = {"0", "-0", "+0", "1", "-17", "3.14", ".5", "5.", ".", "", " ", "-", "+", "1e3", "1E-3", "-2.5e+10",
+            "1e", "1e+", "e3", "1.2.3", "12a", "a12", " 42 ", "\t7\n", "1d", "2.5f", "3F", "4D", "1df", "NaN", "-Infinity", "+Infinity",
+            "Infinityx", "nan", "infinity", "0x1p3", "0x1.8P-1", "-0X.8p1d", "0x1", "0xp1", "0x1p", "123456789012345678901234567890",
+            "0.000000000000000000000000001", "9007199254740993", "9007199254740992", "1e400", "1e-400", "1e99999999999",
+            "4.9e-324", "1.7976931348623157e308", "0.1", "0.3", "=A1", "A1", "hello", "1,000", "1_000", "--1", "+-1", "1e3.5"};
+
+    @Test
+    void testIsNumber() {
+        for (String s : SAMPLES) {
+            assertEquals(parses(s), NumberScanner.isNumber(s), s);
+        }
+        assertFalse(NumberScanner.isNumber(null));
+    }
+
+    @Test
+    void testParseDouble() {
+        for (String s : SAMPLES) {
+            if (parses(s)) {
+                assertEquals(Double.parseDouble(s), NumberScanner.parseDouble(s, -1), s);
+            } else {
+                assertEquals(-1.0, NumberScanner.parseDouble(s, -1), s);
+            }
+        }
+        assertEquals(-0.0, NumberScanner.parseDouble("-0", 1));// the sign of zero is kept
+        Random r = new Random(15);
+        for (int i = 0; i < 10000; i = i + 1) {
+            String s = (r.nextLong() % 100000000) + "." + r.nextInt(100000) + "e" + (r.nextInt(40) - 20);
+            assertEquals(Double.parseDouble(s), NumberScanner.parseDouble(s, 0), s);
+            double d = r.nextDouble() * Math.pow(10, r.nextInt(40) - 20);
+            assertEquals(d, NumberScanner.parseDouble(Double.toString(d), 0));
+        }
+    }
+
+    @Test
+    void testParseInt() {
+        String[] ints = {"0", "-0", "+5", "-17", "2147483647", "-2147483648", "2147483648", "-2147483649", "99999999999", "", "-", "+",
+                "1.0", "1e3", " 1", "a"};
+        for (String s : ints) {
+            Integer expected = null;
+            try {
+                expected = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                ;
+            }
+            assertEquals(expected != null, NumberScanner.isInteger(s), s);
+            if (expected != null) {
+                assertEquals(expected.intValue(), NumberScanner.parseInt(s, -1), s);
+            } else {
+                assertEquals(-1, NumberScanner.parseInt(s, -1), s);
+            }
+        }
+        assertEquals(Integer.valueOf(12), Ex2Sheet.getInteger("12"));
+        assertNull(Ex2Sheet.getInteger("x12"));
+        assertEquals(Double.valueOf(1.5), Ex2Sheet.getDouble("1.5"));
+        assertNull(Ex2Sheet.getDouble("1.5x"));
+    }
+
+    private static boolean parses(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
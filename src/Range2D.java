@@ -7,7 +7,7 @@ import java.util.ArrayList;
 public class Range2D {
     private Index2D start;
     private Index2D end;
-    private String[][] value;
+    private Ex2Sheet table;// The sheet the values are read from (set by updateValue)
 
     /**
      * Creates a Range2D with given start and end points.
@@ -17,7 +17,6 @@ public class Range2D {
     public Range2D(Index2D start, Index2D end) {
         this.start = start;
         this.end = end;
-        this.value = new String[end.getY() - start.getY() + 1][end.getX() - start.getX() + 1];// Creates a 2D array to store values for the range
     }
 
     /**
@@ -32,7 +31,6 @@ public class Range2D {
         Index2D e = new CellEntry(end);
         this.start = s;
         this.end = e;
-        this.value = new String[e.getY() - s.getY() + 1][e.getX() - s.getX() + 1];// Creates a 2D array to store values for the range
     }
 
     /**
@@ -48,10 +46,20 @@ public class Range2D {
     public Index2D getEnd() {return end;}
 
     /**
+     * Builds the table of values in this range (as strings, row by row).
+     * The functions do not use it, they read the numeric values of the cells directly.
      * @return The table of values in this range.
      */
     public String[][] getValue(){
-        return this.value;
+        String[][] value = new String[end.getY() - start.getY() + 1][end.getX() - start.getX() + 1];
+        if (table != null) {
+            for (int i = 0, row = start.getY(); i < value.length; i++, row++) {
+                for (int j = 0, col = start.getX(); j < value[0].length; j++, col++) {
+                    value[i][j] = table.eval(col, row);
+                }
+            }
+        }
+        return value;
     }
 
     /**
@@ -62,7 +70,7 @@ public class Range2D {
         ArrayList<Index2D> cells = new ArrayList<>();
         for (int row = start.getX(); row <= end.getX(); row++) {
             for (int col = start.getY(); col <= end.getY(); col++) {
-                String cellCurrent = Ex2Utils.ABC[row] + col;// Converts to cell name
+                String cellCurrent = CellEntry.name(row, col);// Converts to cell name
                 cells.add(new CellEntry(cellCurrent));
             }
         }
@@ -77,7 +85,7 @@ public class Range2D {
         ArrayList<String> cellNames = new ArrayList<>();
         for (int row = start.getX(); row <= end.getX(); row++) {
             for (int col = start.getY(); col <= end.getY(); col++) {
-                String cellCurrent = Ex2Utils.ABC[row] + col;
+                String cellCurrent = CellEntry.name(row, col);
                 cellNames.add(cellCurrent);
             }
         }
@@ -85,17 +93,12 @@ public class Range2D {
     }
 
     /**
-     * Updates the values in the range from a table.
+     * Sets the table the values of the range are taken from.
+     * The values are not copied, the functions read the computed numeric values of the cells from the table.
      * @param table The Ex2Sheet object that has the data.
      */
     public void updateValue(Ex2Sheet table) {
-        int height = end.getY() - start.getY() + 1;
-        int width = end.getX() - start.getX() + 1;
-        for (int i = 0, row = start.getY(); i < height; i++, row++) {
-            for (int j = 0, col = start.getX(); j < width; j++, col++) {
-                this.value[i][j] = table.eval(col, row);// Fills value array from table
-            }
-        }
+        this.table = table;
     }
 
     /**
@@ -103,19 +106,7 @@ public class Range2D {
      * @return The smallest value as a string.
      */
     public String minValue() {
-        Double min = Double.MAX_VALUE;
-        for (int i = 0; i < this.value.length; i++) {
-            for (int j = 0; j < this.value[0].length; j++) {
-                if (value[i][j].equals("")){// Skips empty values
-                    continue;
-                }
-                double current = Double.parseDouble(value[i][j]);
-                if (current < min) {
-                    min = current;
-                }
-            }
-        }
-        return min.toString();
+        return Double.toString(min());
     }
 
     /**
@@ -123,19 +114,7 @@ public class Range2D {
      * @return The biggest value as a string.
      */
     public String maxValue() {
-        Double max = Double.MIN_VALUE;
-        for (int i = 0; i < this.value.length; i++) {
-            for (int j = 0; j < this.value[0].length; j++) {
-                if (value[i][j].equals("")){
-                    continue;
-                }
-                double current = Double.parseDouble(value[i][j]);
-                if (current > max) {
-                    max = current;
-                }
-            }
-        }
-        return max.toString();
+        return Double.toString(max());
     }
 
     /**
@@ -143,17 +122,7 @@ public class Range2D {
      * @return The sum as a string.
      */
     public String sumValue() {
-        Double sum = 0.0;
-        for (int i = 0; i < this.value.length; i++) {
-            for (int j = 0; j < this.value[0].length; j++) {
-                if (value[i][j].equals("")){
-                    continue;
-                }
-                double current = Double.parseDouble(value[i][j]);
-                sum += current;
-            }
-        }
-        return sum.toString();
+        return Double.toString(sum());
     }
 
     /**
@@ -161,20 +130,7 @@ public class Range2D {
      * @return The product as a string.
      */
     public String multiplyValue() {
-        Double multiply = 1.0;
-        for (int i = 0; i < this.value.length; i++) {
-            for (int j = 0; j < this.value[0].length; j++) {
-                if (value[i][j].equals("")){
-                    continue;
-                }
-                double current = Double.parseDouble(value[i][j]);
-                multiply *= current;
-            }
-        }
-        if (multiply == -0.0){
-            multiply = 0.0;
-        }
-        return multiply.toString();
+        return Double.toString(multiply());
     }
 
     /**
@@ -182,11 +138,52 @@ public class Range2D {
      * @return The average as a string.
      */
     public String averageValue() {
-        String sum = this.sumValue();
-        Double sum1 = Double.parseDouble(sum);
-        ArrayList<String> cells = this.getCellNames();
-        Double average = sum1 / cells.size();
-        return average.toString();
+        return Double.toString(average());
+    }
+
+    /**
+     * Finds the smallest number in the range (cells without a numeric value are skipped).
+     * @return The smallest value, Double.MAX_VALUE if there are none.
+     */
+    public double min() {
+        return table.reduce(3, start.getX(), start.getY(), end.getX(), end.getY());// Column by column over the primitive values
+    }
+
+    /**
+     * Finds the biggest number in the range (cells without a numeric value are skipped).
+     * @return The biggest value, Double.MIN_VALUE if there are none.
+     */
+    public double max() {
+        return table.reduce(4, start.getX(), start.getY(), end.getX(), end.getY());
+    }
+
+    /**
+     * Calculates the sum of all the numbers in the range (cells without a numeric value are skipped).
+     * @return The sum.
+     */
+    public double sum() {
+        return table.reduce(1, start.getX(), start.getY(), end.getX(), end.getY());
+    }
+
+    /**
+     * Multiplies all the numbers in the range (cells without a numeric value are skipped).
+     * @return The product.
+     */
+    public double multiply() {
+        double multiply = table.reduce(5, start.getX(), start.getY(), end.getX(), end.getY());
+        if (multiply == -0.0){
+            multiply = 0.0;
+        }
+        return multiply;
+    }
+
+    /**
+     * Finds the average of the numbers in the range, the sum divided by the number of cells in the range.
+     * @return The average.
+     */
+    public double average() {
+        int cells = (end.getX() - start.getX() + 1) * (end.getY() - start.getY() + 1);
+        return sum() / cells;
     }
 
     /**
@@ -360,26 +357,41 @@ public class Range2D {
      * @return The computed function result as a Double.
      */
     public Double evaluateFunction(String line){
+        int fn = -1;
         if (Range2D.MinFunction(line)) {
-            Double dd = Double.parseDouble(this.minValue());
-            return dd;
+            fn = 3;
         }
         else if (Range2D.MaxFunction(line)) {
-            Double dd = Double.parseDouble(this.maxValue());
-            return dd;
+            fn = 4;
         }
         else if(Range2D.SumFunction(line)){
-            Double dd = Double.parseDouble(this.sumValue());
-            return dd;
+            fn = 1;
         }
         else if (Range2D.MultiplyFunction(line)){
-            Double dd = Double.parseDouble(this.multiplyValue());
-            return dd;
+            fn = 5;
+        }
+        return evaluateFunction(fn);
+    }
+
+    /**
+     * Computes the result of a function given by its index in Ex2Utils.FUNCTIONS (average for any unknown index).
+     * @param fn The index of the function name in Ex2Utils.FUNCTIONS.
+     * @return The computed function result.
+     */
+    public double evaluateFunction(int fn){
+        if (fn == 3) {
+            return this.min();
         }
-        else {
-            Double dd = Double.parseDouble(this.averageValue());
-            return dd;
+        if (fn == 4) {
+            return this.max();
         }
+        if (fn == 1) {
+            return this.sum();
+        }
+        if (fn == 5) {
+            return this.multiply();
+        }
+        return this.average();
     }
 
     /**
@@ -390,21 +402,7 @@ public class Range2D {
      * @return True if all cells are valid numeric values, otherwise false.
      */
     public static boolean checkValidCellTypes(Ex2Sheet t,CellEntry start,CellEntry end) {
-        int height = end.getY() - start.getY() + 1;
-        int width = end.getX() - start.getX() + 1;
-        String empty = "";
-        for (int i = 0, row = start.getY(); i < height; i++, row++) {
-            for (int j = 0, col = start.getX(); j < width; j++, col++) {
-                if (t.get(col, row).getData().equals(empty)){
-                    continue;
-                }
-                Cell current = t.get(col,row);
-                if(current.getType() == Ex2Utils.TEXT || current.getType() == Ex2Utils.FUNC_ERR_FORMAT || current.getType() == Ex2Utils.ERR_WRONG_IF || current.getType() == Ex2Utils.ERR_CYCLE_FORM || current.getType() == Ex2Utils.ERR_FORM_FORMAT ){
-                    return false;
-                }
-            }
-        }
-        return true;
+        return t.invalidCells(start.getX(), start.getY(), end.getX(), end.getY()) == 0;// Counted by the sheet, without visiting the cells
     }
 
 }
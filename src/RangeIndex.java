@@ -0,0 +1,170 @@
+/**
+ * This class answers sums, minimums and maximums over rectangles of the computed values of a spreadsheet (its ValueStore)
+ * from summaries of the parts of a column: blocks of BLOCK cells, and tiles of TILE cells (BLOCK blocks).
+ * A summary is computed again from the values of its cells, in their order, after one of them changed (see changed),
+ * so a result depends only on the current values and never on the edits which led to them.
+ * Every column of a rectangle is reduced from its first row on: the cells before a whole block one by one,
+ * then whole tiles and blocks, then the last cells. A sum may thus differ in its last bits from a cell by cell sum.
+ * The summaries of a tile are allocated when a rectangle first covers one of its blocks,
+ * so the index takes memory only for the parts of the columns which are in large ranges.
+ * All the methods are synchronized, values may be set by concurrent evaluations.
+ */
+public class RangeIndex {
+    public static final int BLOCK = 64;// The number of cells in a block
+    public static final int TILE = BLOCK * BLOCK;// The number of cells in a tile
+    private final ValueStore values;
+    private final int height, tilesPerColumn;
+    private final Tile[] tiles;// By x * tilesPerColumn + y / TILE, null until used
+
+    private static final class Tile {
+        final double[] sums = new double[BLOCK], mins = new double[BLOCK], maxs = new double[BLOCK];
+        long dirty = -1L;// Bit b is set iff the summary of block b is out of date
+        double sum, min, max;// Of the whole tile, out of date while dirty != 0
+    }
+
+    /**
+     * Creates an index over the values of a spreadsheet.
+     *
+     * @param values The values of the cells (by Ex2Sheet index, x * height + y).
+     * @param width  The number of columns.
+     * @param height The number of rows.
+     */
+    public RangeIndex(ValueStore values, int width, int height) {
+        this.values = values;
+        this.height = height;
+        tilesPerColumn = (height - 1) / TILE + 1;
+        tiles = new Tile[width * tilesPerColumn];
+    }
+
+    /**
+     * Marks the values of all the cells as changed.
+     */
+    public synchronized void clear() {
+        for (int t = 0; t < tiles.length; t = t + 1) {
+            if (tiles[t] != null) {
+                tiles[t].dirty = -1L;
+            }
+        }
+    }
+
+    /**
+     * Marks the value of a cell as changed (or removed), it must be called after the value is set in the ValueStore.
+     *
+     * @param x The column index of the cell.
+     * @param y The row index of the cell.
+     */
+    public synchronized void changed(int x, int y) {
+        Tile t = tiles[x * tilesPerColumn + y / TILE];
+        if (t != null) {
+            t.dirty |= 1L << (y % TILE / BLOCK);
+        }
+    }
+
+    /**
+     * Computes the sum of the values in a rectangle (including both corners).
+     *
+     * @param x1 The first column.
+     * @param y1 The first row.
+     * @param x2 The last column.
+     * @param y2 The last row.
+     * @return The sum of the values (0 if there are none).
+     */
+    public synchronized double sum(int x1, int y1, int x2, int y2) {
+        return query(1, x1, y1, x2, y2, 0);
+    }
+
+    /**
+     * Computes the minimum of the (non NaN) values in a rectangle (including both corners).
+     *
+     * @param x1 The first column.
+     * @param y1 The first row.
+     * @param x2 The last column.
+     * @param y2 The last row.
+     * @return The minimum value (positive infinity if there are none).
+     */
+    public synchronized double min(int x1, int y1, int x2, int y2) {
+        return query(3, x1, y1, x2, y2, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Computes the maximum of the (non NaN) values in a rectangle (including both corners).
+     *
+     * @param x1 The first column.
+     * @param y1 The first row.
+     * @param x2 The last column.
+     * @param y2 The last row.
+     * @return The maximum value (negative infinity if there are none).
+     */
+    public synchronized double max(int x1, int y1, int x2, int y2) {
+        return query(4, x1, y1, x2, y2, Double.NEGATIVE_INFINITY);
+    }
+
+    private double query(int fn, int x1, int y1, int x2, int y2, double ans) {// fn as in Ex2Utils.FUNCTIONS: sum, min or max
+        for (int x = x1; x <= x2; x = x + 1) {
+            int column = x * height;
+            int y = y1;
+            while (y <= y2) {
+                if (y % TILE == 0 && y2 - y >= TILE - 1) {// A whole tile
+                    Tile t = tile(x, y / TILE);
+                    ans = combine(fn, ans, t.sum, t.min, t.max);
+                    y = y + TILE;
+                } else if (y % BLOCK == 0 && y2 - y >= BLOCK - 1) {// A whole block
+                    Tile t = tile(x, y / TILE);
+                    int b = y % TILE / BLOCK;
+                    ans = combine(fn, ans, t.sums[b], t.mins[b], t.maxs[b]);
+                    y = y + BLOCK;
+                } else {// The cells up to the end of the block (or of the range)
+                    int end = Math.min(y2 + 1, (y / BLOCK + 1) * BLOCK);
+                    if (fn == 3) {
+                        ans = values.min(column + y, column + end, ans);
+                    } else if (fn == 4) {
+                        ans = values.max(column + y, column + end, ans);
+                    } else {
+                        ans = values.sum(column + y, column + end, ans);
+                    }
+                    y = end;
+                }
+            }
+        }
+        return ans;
+    }
+
+    private static double combine(int fn, double ans, double sum, double min, double max) {
+        if (fn == 3) {
+            return Math.min(ans, min);
+        }
+        if (fn == 4) {
+            return Math.max(ans, max);
+        }
+        return ans + sum;
+    }
+
+    private Tile tile(int x, int k) {// The up to date summaries of the k-th tile of column x
+        Tile t = tiles[x * tilesPerColumn + k];
+        if (t == null) {
+            t = new Tile();
+            tiles[x * tilesPerColumn + k] = t;
+        }
+        if (t.dirty != 0) {
+            int column = x * height, first = k * TILE;
+            for (int b = 0; b < BLOCK; b = b + 1) {
+                if ((t.dirty & (1L << b)) != 0) {
+                    int from = Math.min(height, first + b * BLOCK), to = Math.min(height, from + BLOCK);
+                    t.sums[b] = values.sum(column + from, column + to, 0);
+                    t.mins[b] = values.min(column + from, column + to, Double.POSITIVE_INFINITY);
+                    t.maxs[b] = values.max(column + from, column + to, Double.NEGATIVE_INFINITY);
+                }
+            }
+            t.sum = 0;
+            t.min = Double.POSITIVE_INFINITY;
+            t.max = Double.NEGATIVE_INFINITY;
+            for (int b = 0; b < BLOCK; b = b + 1) {// Always from the block summaries, in order
+                t.sum = t.sum + t.sums[b];
+                t.min = Math.min(t.min, t.mins[b]);
+                t.max = Math.max(t.max, t.maxs[b]);
+            }
+            t.dirty = 0;
+        }
+        return t;
+    }
+}
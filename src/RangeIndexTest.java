@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+class RangeIndexTest {
+    private static final int W = 5, H = 300;// several blocks per column
+    private ValueStore values;
+    private RangeIndex index;
+
+    @BeforeEach
+    void setUp() {
+        values = new ValueStore(W * H);
+        index = new RangeIndex(values, W, H);
+    }
+
+    private void set(int x, int y, double v) {
+        values.set(x * H + y, v);
+        index.changed(x, y);
+    }
+
+    private void clear(int x, int y) {
+        values.clear(x * H + y);
+        index.changed(x, y);
+    }
+
+    @Test
+    void testSumMinMax() {
+        set(0, 0, 1);
+        set(1, 2, 5);
+        set(4, 299, -3);
+        assertEquals(3.0, index.sum(0, 0, 4, 299));
+        assertEquals(6.0, index.sum(0, 0, 1, 2));
+        assertEquals(5.0, index.sum(1, 1, 4, 298));
+        assertEquals(-3.0, index.min(0, 0, 4, 299));
+        assertEquals(5.0, index.max(0, 0, 4, 299));
+        assertEquals(1.0, index.max(0, 0, 0, 299));
+        set(1, 2, 2);// update
+        clear(4, 299);
+        assertEquals(3.0, index.sum(0, 0, 4, 299));
+        assertEquals(1.0, index.min(0, 0, 4, 299));
+        assertEquals(0.0, index.sum(2, 0, 4, 299));
+        assertEquals(Double.POSITIVE_INFINITY, index.min(2, 0, 4, 299));// no values
+        assertEquals(Double.NEGATIVE_INFINITY, index.max(2, 0, 4, 299));
+    }
+
+    @Test
+    void testNotFinite() {
+        set(0, 0, 1);
+        set(1, 70, Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, index.sum(0, 0, 1, 299));
+        assertEquals(1.0, index.sum(0, 0, 0, 299));
+        set(2, 70, Double.NEGATIVE_INFINITY);
+        assertTrue(Double.isNaN(index.sum(0, 0, 2, 299)));
+        set(1, 70, Double.NaN);
+        assertTrue(Double.isNaN(index.sum(0, 0, 1, 299)));
+        assertEquals(1.0, index.max(0, 0, 1, 299));// NaN is not a min or max
+        clear(1, 70);
+        clear(2, 70);
+        assertEquals(1.0, index.sum(0, 0, 4, 299));
+    }
+
+    @Test
+    void testHistory() {
+        set(1, 64, 1e20);
+        set(1, 65, 1);
+        assertEquals(1e20, index.sum(0, 0, 4, 299));
+        clear(1, 64);
+        assertEquals(1.0, index.sum(0, 0, 4, 299));// Computed again from the values, nothing is left of 1e20
+        values.clear();
+        index.clear();
+        assertEquals(0.0, index.sum(0, 0, 4, 299));
+    }
+
+    @Test
+    void testRandom() {
+        Random r = new Random(7);
+        double[][] v = new double[W][H];
+        for (int n = 0; n < 2000; n = n + 1) {
+            int x = r.nextInt(W), y = r.nextInt(H);
+            v[x][y] = r.nextInt(100) - 50;
+            set(x, y, v[x][y]);
+            int x1 = r.nextInt(W), y1 = r.nextInt(H);
+            int x2 = x1 + r.nextInt(W - x1), y2 = y1 + r.nextInt(H - y1);
+            double sum = 0;// the cells which were not set yet have no value, and add nothing
+            for (int i = x1; i <= x2; i = i + 1) {
+                for (int j = y1; j <= y2; j = j + 1) {
+                    sum += v[i][j];
+                }
+            }
+            assertEquals(sum, index.sum(x1, y1, x2, y2));
+        }
+        for (int i = 0; i < W; i = i + 1) {
+            for (int j = 0; j < H; j = j + 1) {
+                set(i, j, v[i][j]);
+            }
+        }
+        assertEquals(minOf(v, 1, 2, 3, 250), index.min(1, 2, 3, 250));
+        assertEquals(maxOf(v, 0, 1, 4, 264), index.max(0, 1, 4, 264));
+    }
+
+    @Test
+    void testTiles() {
+        ValueStore tall = new ValueStore(2 * 10000);
+        RangeIndex t = new RangeIndex(tall, 2, 10000);
+        double sum = 0;
+        for (int y = 0; y < 10000; y = y + 1) {
+            tall.set(10000 + y, y % 7);
+            sum += y % 7;
+        }
+        assertEquals(sum, t.sum(0, 0, 1, 9999));// whole tiles, blocks and cells, integers are exact in any order
+        assertEquals(6.0, t.max(1, 0, 1, 9999));
+        tall.set(10000 + 5000, -2);
+        t.changed(1, 5000);
+        assertEquals(sum - 4, t.sum(1, 0, 1, 9999));// 5000 % 7 == 2
+        assertEquals(-2.0, t.min(0, 4096, 1, 8191));
+    }
+
+    private static double minOf(double[][] v, int x1, int y1, int x2, int y2) {
+        double ans = Double.POSITIVE_INFINITY;
+        for (int i = x1; i <= x2; i = i + 1) {
+            for (int j = y1; j <= y2; j = j + 1) {
+                ans = Math.min(ans, v[i][j]);
+            }
+        }
+        return ans;
+    }
+
+    private static double maxOf(double[][] v, int x1, int y1, int x2, int y2) {
+        double ans = Double.NEGATIVE_INFINITY;
+        for (int i = x1; i <= x2; i = i + 1) {
+            for (int j = y1; j <= y2; j = j + 1) {
+                ans = Math.max(ans, v[i][j]);
+            }
+        }
+        return ans;
+    }
+}
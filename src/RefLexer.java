@@ -0,0 +1,187 @@
+import java.util.Arrays;
+
+/**
+ * This class extracts the cell references of a text (a formula, a function or an IF) in a single pass over its chars.
+ * Every reference is returned as a range of 4 ints {x1, y1, x2, y2}: a single cell "B3" is {1, 3, 1, 3}
+ * and a range "A1:C4" is kept as the range {0, 1, 2, 4} (not expanded into its cells).
+ * No objects are created except the returned array.
+ */
+public class RefLexer {
+    private static final int[] NONE = new int[0];
+
+    /**
+     * Extracts the references of a text.
+     *
+     * @param s The text.
+     * @return The references, 4 ints per reference (in the order they appear).
+     */
+    public static int[] scan(CharSequence s) {
+        return scan(s, 0, s.length());
+    }
+
+    /**
+     * Extracts the references of a part of a text.
+     * A reference is a run of letters followed by a run of digits, two references separated by ':' are a range.
+     *
+     * @param s    The text.
+     * @param from The first char to scan.
+     * @param to   The end of the part to scan (exclusive).
+     * @return The references, 4 ints per reference (in the order they appear).
+     */
+    public static int[] scan(CharSequence s, int from, int to) {
+        int[] ans = NONE;
+        int n = 0;
+        int i = from;
+        while (i < to) {
+            int end = token(s, i, to);
+            long key = CellEntry.INVALID;
+            if (end > i) {
+                key = CellEntry.parse(s, i, end);
+            }
+            if (key == CellEntry.INVALID) {
+                i = Math.max(i + 1, skipLetters(s, i, to));
+                continue;
+            }
+            long last = key;
+            if (end < to && s.charAt(end) == ':') {// A range
+                int end2 = token(s, end + 1, to);
+                long key2 = CellEntry.INVALID;
+                if (end2 > end + 1) {
+                    key2 = CellEntry.parse(s, end + 1, end2);
+                }
+                if (key2 != CellEntry.INVALID) {
+                    last = key2;
+                    end = end2;
+                }
+            }
+            if (n + 4 > ans.length) {
+                ans = Arrays.copyOf(ans, Math.max(8, ans.length * 2));
+            }
+            ans[n++] = CellEntry.keyX(key);
+            ans[n++] = CellEntry.keyY(key);
+            ans[n++] = CellEntry.keyX(last);
+            ans[n++] = CellEntry.keyY(last);
+            i = end;
+        }
+        if (n == ans.length) {
+            return ans;
+        }
+        return Arrays.copyOf(ans, n);
+    }
+
+    /**
+     * Normalizes a text into a relative (R1C1 style) template: every reference is replaced by its offset from an anchor cell,
+     * so the copies of a relative formula (e.g. "=A1*1.4" in B1 and "=A2*1.4" in B2) give the same template.
+     * A single reference is written as the char 1 followed by "R dy C dx", a range as the char 2 followed by "R dy C dx R dy2 C dx2".
+     *
+     * @param s  The text, it should not contain the chars 1 and 2 (which would make the template ambiguous).
+     * @param ax The column of the anchor.
+     * @param ay The row of the anchor.
+     * @return The template of the text.
+     */
+    public static String template(CharSequence s, int ax, int ay) {
+        StringBuilder ans = new StringBuilder(s.length() + 8);
+        int to = s.length();
+        int i = 0;
+        while (i < to) {
+            int end = token(s, i, to);
+            long key = CellEntry.INVALID;
+            if (end > i) {
+                key = CellEntry.parse(s, i, end);
+            }
+            if (key == CellEntry.INVALID) {
+                int next = Math.max(i + 1, skipLetters(s, i, to));
+                ans.append(s, i, next);
+                i = next;
+                continue;
+            }
+            long last = CellEntry.INVALID;
+            if (end < to && s.charAt(end) == ':') {// A range
+                int end2 = token(s, end + 1, to);
+                if (end2 > end + 1) {
+                    last = CellEntry.parse(s, end + 1, end2);
+                }
+                if (last != CellEntry.INVALID) {
+                    end = end2;
+                }
+            }
+            ans.append(last == CellEntry.INVALID ? '\u0001' : '\u0002');
+            ans.append('R').append(CellEntry.keyY(key) - ay).append('C').append(CellEntry.keyX(key) - ax);
+            if (last != CellEntry.INVALID) {
+                ans.append('R').append(CellEntry.keyY(last) - ay).append('C').append(CellEntry.keyX(last) - ax);
+            }
+            i = end;
+        }
+        return ans.toString();
+    }
+
+    /**
+     * Counts the cells of the given references.
+     *
+     * @param ranges The references, 4 ints per reference.
+     * @return The number of cells (a cell appearing in several references is counted several times).
+     */
+    public static int count(int[] ranges) {
+        int ans = 0;
+        for (int i = 0; i < ranges.length; i = i + 4) {
+            if (ranges[i] <= ranges[i + 2] && ranges[i + 1] <= ranges[i + 3]) {
+                ans += (ranges[i + 2] - ranges[i] + 1) * (ranges[i + 3] - ranges[i + 1] + 1);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Expands the given references into their cells, a range column by column.
+     *
+     * @param ranges The references, 4 ints per reference.
+     * @return The cells, 2 ints {x, y} per cell.
+     */
+    public static int[] expand(int[] ranges) {
+        int[] ans = new int[2 * count(ranges)];
+        int n = 0;
+        for (int i = 0; i < ranges.length; i = i + 4) {
+            for (int x = ranges[i]; x <= ranges[i + 2]; x = x + 1) {
+                for (int y = ranges[i + 1]; y <= ranges[i + 3]; y = y + 1) {
+                    ans[n++] = x;
+                    ans[n++] = y;
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Joins two lists of references.
+     *
+     * @param a The first references.
+     * @param b The second references.
+     * @return The references of a followed by the references of b.
+     */
+    public static int[] concat(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        if (a.length == 0) {
+            return b;
+        }
+        int[] ans = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ans, a.length, b.length);
+        return ans;
+    }
+
+    private static int token(CharSequence s, int i, int to) {// The end of the letters + digits run starting at i
+        int j = skipLetters(s, i, to);
+        while (j < to && s.charAt(j) >= '0' && s.charAt(j) <= '9') {
+            j++;
+        }
+        return j;
+    }
+
+    private static int skipLetters(CharSequence s, int i, int to) {
+        while (i < to && CellEntry.letter(s.charAt(i)) != -1) {
+            i++;
+        }
+        return i;
+    }
+}
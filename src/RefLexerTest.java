@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class RefLexerTest {
+
+    @Test
+    void testScan() {
+        assertArrayEquals(new int[]{0, 1, 0, 1, 1, 12, 1, 12}, RefLexer.scan("=A1+b12*2"));
+        assertArrayEquals(new int[]{0, 1, 2, 4}, RefLexer.scan("=sum(A1:C4)"));// a range stays a range
+        assertArrayEquals(new int[]{26, 3, 26, 3}, RefLexer.scan("=(AA3)"));
+        assertArrayEquals(new int[]{1, 2, 1, 2}, RefLexer.scan("=if(B2>3,big,small)"));
+        assertEquals(0, RefLexer.scan("=3+4").length);
+        assertEquals(0, RefLexer.scan("").length);
+    }
+
+    @Test
+    void testExpand() {
+        int[] ranges = {0, 1, 1, 2, 5, 5, 5, 5};
+        assertEquals(5, RefLexer.count(ranges));
+        assertArrayEquals(new int[]{0, 1, 0, 2, 1, 1, 1, 2, 5, 5}, RefLexer.expand(ranges));
+        assertEquals(0, RefLexer.count(new int[]{3, 3, 1, 1}));// reversed, no cells
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6, 7, 8}, RefLexer.concat(new int[]{1, 2, 3, 4}, new int[]{5, 6, 7, 8}));
+    }
+
+    @Test
+    void testTemplate() {
+        assertEquals(RefLexer.template("=A1*1.4", 1, 1), RefLexer.template("=a2*1.4", 1, 2));// the same relative formula
+        assertNotEquals(RefLexer.template("=A1*1.4", 1, 1), RefLexer.template("=A1*1.4", 1, 2));
+        assertEquals("=\u0001R0C-1*1.4", RefLexer.template("=A1*1.4", 1, 1));
+        assertEquals("=sum(\u0002R0C0R2C1)", RefLexer.template("=sum(A0:B2)", 0, 0));
+        assertEquals("=R[0]C[1]", RefLexer.template("=R[0]C[1]", 0, 0));// not a reference
+    }
+}
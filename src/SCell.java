@@ -6,6 +6,11 @@ public class SCell implements Cell {
     private String _line;// Cell's data
     private int order =0;// Defines the computation order for formula evaluation
     int type = Ex2Utils.TEXT;// Type of data contained in the cell
+    private int dataType = Ex2Utils.TEXT;// The type determined by the data itself (before any evaluation)
+    private Formula formula;// The compiled formula (FORM, FUNCTION and IF cells only)
+    private double number;// The value of a NUMBER cell (parsed once)
+    private int[] ifCells;// The references an IF validation checks (extracted once, on first use)
+    private final int x, y;// The coordinates of the cell, the anchor of its (relative) formula
 
     /**
      * Default constructor setting an empty cell.
@@ -18,6 +23,19 @@ public class SCell implements Cell {
      * @param s The value to store in the cell.
      */
     public SCell(String s) {
+        this(s, 0, 0);
+    }
+
+    /**
+     * Constructor that sets the cell with data, for a cell at the given coordinates.
+     * The compiled formula is relative to the cell, so it can be shared with copies of the same formula in other cells.
+     * @param s The value to store in the cell.
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     */
+    public SCell(String s, int x, int y) {
+        this.x = x;
+        this.y = y;
         setData(s);
     }
     /**
@@ -45,6 +63,7 @@ public class SCell implements Cell {
         type = Ex2Utils.TEXT;
         if (isNumber(s)) {
             type = Ex2Utils.NUMBER;
+            number = NumberScanner.parseDouble(s, 0);
         }
         else if (isFunction(s)){
             type = Ex2Utils.FUNCTION;
@@ -56,8 +75,45 @@ public class SCell implements Cell {
             type = Ex2Utils.FORM;
         }
         _line = s;
+        dataType = type;
+        formula = FormulaTemplates.compile(s, type, x, y);// Parse the formula once (or share the tree of a copy), evaluation only walks it
+        ifCells = null;
       }
     }
+
+    /**
+     * Gets the compiled formula of this cell, its references are relative to the cell (see Formula.relative).
+     * @return The compiled formula, or null if the cell is not a (valid) FORM, FUNCTION or IF.
+     */
+    public Formula getFormula() {
+        return formula;
+    }
+
+    /**
+     * Gets the references checked by the validation of an IF cell (see Ex2Sheet.ifRanges), they are extracted on first use.
+     * @return The references, 4 ints per reference (see RefLexer).
+     */
+    public int[] getIfCells() {
+        if (ifCells == null) {
+            ifCells = Ex2Sheet.ifRanges(_line);
+        }
+        return ifCells;
+    }
+
+    /**
+     * Gets the value of a NUMBER cell.
+     * @return The number this cell was set to (only meaningful for a NUMBER cell).
+     */
+    public double getNumber() {
+        return number;
+    }
+
+    /**
+     * Restores the type of the cell to the one determined by its data (clears the errors of a previous evaluation).
+     */
+    public void resetType() {
+        type = dataType;
+    }
     /**
      * Gets the data in the cell.
      * @return The cell's value as a string.
@@ -99,13 +155,7 @@ public class SCell implements Cell {
      * @return True if the string is a valid number, otherwise false.
      */
     public static boolean isNumber(String line) {
-        boolean ans = false;
-        try {
-            double v = Double.parseDouble(line);
-            ans = true;
-        }
-        catch (Exception e) {;}
-        return ans;
+        return NumberScanner.isNumber(line);
     }
 
     /**
@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A headless batch runner: evaluates many files in the save() format in parallel and writes the values of their cells.
+ * Every file is loaded into its own Ex2Sheet (all its lines are recalculated once, see Ex2Sheet.load) on a bounded pool
+ * of threads, and its values are written to the output directory as "x,y,value" lines (same header and order as save).
+ * A line with the timing of each file is printed as soon as the file is done. Nothing here uses StdDrawEx2 or AWT.
+ * Run: java SheetBatch inputDirectory outputDirectory [threads]
+ */
+public class SheetBatch {
+    public static final String SUFFIX = ".values.txt";// The name of the output of a.txt is a.values.txt
+
+    /** The main function for running the batch */
+    public static void main(String[] a) throws InterruptedException {
+        if (a.length < 2) {
+            System.err.println("Usage: java SheetBatch inputDirectory outputDirectory [threads]");
+            System.exit(2);
+        }
+        int threads = a.length >= 3 ? Integer.parseInt(a[2]) : Runtime.getRuntime().availableProcessors();
+        File[] files = new File(a[0]).listFiles((dir, name) -> name.endsWith(".txt") && !name.endsWith(SUFFIX));
+        if (files == null) {
+            System.err.println("Not a directory: " + a[0]);
+            System.exit(2);
+        }
+        Arrays.sort(files);
+        int failed = run(files, new File(a[1]), threads, System.out);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Evaluates the given files in parallel, printing a line per file (in the order they are done) and a summary.
+     *
+     * @param files   The files to evaluate.
+     * @param out     The output directory.
+     * @param threads The number of files evaluated at once.
+     * @param log     Where the timing lines are printed.
+     * @return The number of files which could not be evaluated.
+     * @throws InterruptedException If interrupted while waiting for the files.
+     */
+    public static int run(File[] files, File out, int threads, PrintStream log) throws InterruptedException {
+        out.mkdirs();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        ExecutorCompletionService<String> done = new ExecutorCompletionService<>(pool);
+        boolean serial = threads > 1;// The files are the parallel work, each sheet is evaluated on its own thread
+        long t0 = System.nanoTime();
+        for (int i = 0; i < files.length; i = i + 1) {
+            File f = files[i];
+            done.submit(() -> evaluate(f, new File(out, f.getName().replaceAll("\\.txt$", "") + SUFFIX), serial));
+        }
+        int failed = 0;
+        for (int i = 0; i < files.length; i = i + 1) {
+            try {
+                log.println(done.take().get());
+            } catch (ExecutionException e) {
+                failed++;
+                log.println("FAILED " + e.getCause());
+            }
+        }
+        pool.shutdown();
+        log.println(files.length + " files, " + failed + " failed, " + (System.nanoTime() - t0) / 1000000 + " ms");
+        return failed;
+    }
+
+    /**
+     * Loads a file, evaluates it and writes the values of its non empty cells.
+     * The sheet is large enough for all the cells of the file (and at least of the default size).
+     *
+     * @param in     The file, in the save() format.
+     * @param out    The output file.
+     * @param serial True to evaluate the sheet on the calling thread only.
+     * @return The timing line of the file.
+     * @throws IOException If the file can not be read or the output written.
+     */
+    public static String evaluate(File in, File out, boolean serial) throws IOException {
+        long t0 = System.nanoTime();
+        int[] size = size(in);
+        Ex2Sheet sheet = new Ex2Sheet(size[0], size[1]);
+        if (serial) {
+            sheet.setParallelism(Integer.MAX_VALUE, ForkJoinPool.commonPool());
+        }
+        sheet.load(in.getPath());
+        long t1 = System.nanoTime();
+        int[] cells = sheet.nonEmptyCells();
+        BufferedWriter w = new BufferedWriter(new FileWriter(out));
+        w.write("I2CS ArielU: SpreadSheet (Ex2) assignment - values of " + in.getName() + "\n");
+        for (int i = 0; i < cells.length; i = i + 2) {
+            w.write(cells[i] + "," + cells[i + 1] + "," + sheet.value(cells[i], cells[i + 1]) + "\n");
+        }
+        w.close();
+        long t2 = System.nanoTime();
+        return in.getName() + "\t" + cells.length / 2 + " cells\tload+eval " + (t1 - t0) / 1000000 + " ms\twrite " + (t2 - t1) / 1000000 + " ms";
+    }
+
+    private static int[] size(File in) throws IOException {// The columns and rows needed by the cells of a file
+        int[] ans = {Ex2Utils.WIDTH, Ex2Utils.HEIGHT};
+        BufferedReader r = new BufferedReader(new FileReader(in));
+        String line = r.readLine();// The header
+        while ((line = r.readLine()) != null) {
+            int c1 = line.indexOf(','), c2 = line.indexOf(',', c1 + 1);
+            if (c1 > 0 && c2 > c1) {
+                int x = NumberScanner.parseInt(line.substring(0, c1), -1);
+                int y = NumberScanner.parseInt(line.substring(c1 + 1, c2), -1);
+                ans[0] = Math.max(ans[0], x + 1);
+                ans[1] = Math.max(ans[1], y + 1);
+            }
+        }
+        r.close();
+        return ans;
+    }
+}
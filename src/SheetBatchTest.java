@@ -0,0 +1,48 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+
+class SheetBatchTest {
+
+    @Test
+    void testRun() throws IOException, InterruptedException {
+        File in = Files.createTempDirectory("batch").toFile();
+        File out = new File(in, "out");
+        File[] files = new File[5];
+        for (int i = 0; i < files.length; i = i + 1) {
+            Ex2Sheet s = new Ex2Sheet(3, 5);
+            s.set(0, 0, "" + i);
+            s.set(1, 2, "=A0*10");
+            s.set(2, 4, "=sum(A0:B2)");
+            files[i] = new File(in, "s" + i + ".txt");
+            s.save(files[i].getPath());
+        }
+        Files.writeString(new File(in, "wide.txt").toPath(), "header\n40,300,7\n41,300,=AO300+1\n");// Out of the default size
+        File[] all = new File[files.length + 1];
+        System.arraycopy(files, 0, all, 0, files.length);
+        all[files.length] = new File(in, "wide.txt");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        assertEquals(0, SheetBatch.run(all, out, 3, new PrintStream(log)));
+        List<String> lines = Files.readAllLines(new File(out, "s3" + SheetBatch.SUFFIX).toPath());
+        assertEquals(List.of("0,0,3.0", "1,2,30.0", "2,4,33.0"), lines.subList(1, lines.size()));
+        lines = Files.readAllLines(new File(out, "wide" + SheetBatch.SUFFIX).toPath());
+        assertEquals(List.of("40,300,7.0", "41,300,8.0"), lines.subList(1, lines.size()));
+        String text = log.toString();
+        assertTrue(text.contains("s4.txt\t3 cells"));
+        assertTrue(text.contains("6 files, 0 failed"));
+        File[] left = out.listFiles();
+        for (int i = 0; i < left.length; i = i + 1) {
+            left[i].delete();
+        }
+        out.delete();
+        for (int i = 0; i < all.length; i = i + 1) {
+            all[i].delete();
+        }
+        in.delete();
+    }
+}
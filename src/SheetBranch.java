@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a what-if branch of a ConcurrentSheet: a copy of its cells which can be edited independently.
+ * A branch is a persistent SheetSnapshot (copy on write tiles), so creating a branch (or a branch of a branch) takes O(1)
+ * and an edit copies only the tiles of the cells it recalculates, all the other tiles are shared with the origin
+ * (and with the other branches), so hundreds of scenarios of a large sheet do not duplicate it.
+ * The edits are evaluated by the engine of the origin (see ConcurrentSheet.evaluate), which is left unchanged.
+ * An edit (and depth()) applies all the differences of the branch from the origin to that engine and then undoes them,
+ * under the writer lock of the origin: it costs in proportion to how far the branch diverged from the origin,
+ * and blocks the edits of the origin meanwhile, so a branch is meant for a limited number of differences.
+ * The reads use the snapshot of the branch without locking, as in ConcurrentSheet.
+ */
+public class SheetBranch implements Sheet {
+    private final ReentrantLock writer = new ReentrantLock();// Held by the thread which edits the branch
+    private final ConcurrentSheet origin;
+    private volatile SheetSnapshot snapshot;
+
+    /**
+     * Creates a branch with the given cells.
+     *
+     * @param origin   The sheet whose engine evaluates the edits of the branch.
+     * @param snapshot The cells of the branch (a snapshot of the origin or of another branch of it).
+     */
+    public SheetBranch(ConcurrentSheet origin, SheetSnapshot snapshot) {
+        this.origin = origin;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return The current snapshot of this branch, all the reads from it are consistent with each other.
+     */
+    public SheetSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Creates a branch of this branch, in O(1).
+     *
+     * @return A new branch with the current cells of this branch.
+     */
+    public SheetBranch branch() {
+        return new SheetBranch(origin, snapshot);
+    }
+
+    @Override
+    public boolean isIn(int x, int y) {
+        return x >= 0 && y >= 0 && x < width() && y < height();
+    }
+
+    @Override
+    public int width() {
+        return snapshot.width();
+    }
+
+    @Override
+    public int height() {
+        return snapshot.height();
+    }
+
+    /**
+     * Sets a cell of this branch and recalculates the cells depending on it (the origin is not changed).
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @param c The value to set in the cell.
+     */
+    @Override
+    public void set(int x, int y, String c) {
+        setAll(new int[]{x}, new int[]{y}, new String[]{c});
+    }
+
+    /**
+     * Sets several cells of this branch as one edit (see ConcurrentSheet.setAll).
+     *
+     * @param xs    The column indexes.
+     * @param ys    The row indexes.
+     * @param cells The values to set in the cells.
+     */
+    public void setAll(int[] xs, int[] ys, String[] cells) {
+        int[] edited = new int[2 * cells.length];
+        for (int i = 0; i < cells.length; i = i + 1) {
+            edited[2 * i] = xs[i];
+            edited[2 * i + 1] = ys[i];
+        }
+        writer.lock();
+        try {
+            snapshot = origin.evaluate(snapshot, edited, cells);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public Cell get(int x, int y) {
+        return snapshot.get(x, y);
+    }
+
+    @Override
+    public Cell get(String entry) {
+        Cell ans = null;
+        long key = CellEntry.parse(entry);
+        int x = CellEntry.keyX(key), y = CellEntry.keyY(key);
+        if (key != CellEntry.INVALID && isIn(x, y)) {
+            ans = get(x, y);
+        }
+        return ans;
+    }
+
+    @Override
+    public String value(int x, int y) {
+        return snapshot.value(x, y);
+    }
+
+    @Override
+    public String eval(int x, int y) {
+        return snapshot.eval(x, y);
+    }
+
+    /**
+     * Nothing to do: the values of a branch are recalculated by every edit.
+     */
+    @Override
+    public void eval() {
+    }
+
+    @Override
+    public int[][] depth() {
+        return origin.depth(snapshot);
+    }
+
+    @Override
+    public void save(String fileName) throws IOException {
+        snapshot.save(fileName);
+    }
+
+    /**
+     * Replaces the cells of this branch by the cells of a file (the origin is not changed).
+     *
+     * @param fileName The name of the file to load data from.
+     * @throws IOException If an error occurs while reading the file, or it is a binary file of another size.
+     */
+    @Override
+    public void load(String fileName) throws IOException {
+        ConcurrentSheet loaded = new ConcurrentSheet(width(), height());
+        loaded.load(fileName);
+        if (loaded.width() != width() || loaded.height() != height()) {// A binary file keeps its size, a branch has the size of its origin
+            throw new IOException("The sheet of " + fileName + " is " + loaded.width() + "x" + loaded.height() + ", not " + width() + "x" + height());
+        }
+        writer.lock();
+        try {
+            snapshot = origin.evaluate(loaded.snapshot(), new int[0], new String[0]);
+        } finally {
+            writer.unlock();
+        }
+    }
+}
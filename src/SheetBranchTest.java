@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+
+class SheetBranchTest {
+    private ConcurrentSheet sheet;
+
+    @BeforeEach
+    void setUp() {
+        sheet = new ConcurrentSheet(3, 1000);
+        sheet.setAll(new int[]{0, 1, 1, 2}, new int[]{0, 0, 999, 5}, new String[]{"10", "=A0*2", "=B0+1", "=sum(A0:B0)"});
+    }
+
+    @Test
+    void testBranch() {
+        SheetBranch low = sheet.branch();
+        SheetBranch high = sheet.branch();
+        low.set(0, 0, "1");
+        high.set(0, 0, "100");
+        assertEquals("3.0", low.value(1, 999));
+        assertEquals("3.0", low.value(2, 5));
+        assertEquals("201.0", high.value(1, 999));
+        assertEquals("21.0", sheet.value(1, 999));// The origin is not changed
+        assertEquals("10", sheet.get(0, 0).getData());
+        assertEquals(2, low.depth()[1][999]);
+        sheet.set(0, 0, "5");// Nor are the branches by the origin
+        assertEquals("11.0", sheet.value(1, 999));
+        assertEquals("3.0", low.value(1, 999));
+        low.set(0, 1, "hello");
+        assertEquals("3.0", low.value(1, 999));
+        assertEquals("1", low.get("A0").getData());
+        assertEquals("", sheet.value(0, 1));
+        SheetBranch lower = low.branch();
+        lower.set(1, 0, "=A0*3");
+        assertEquals("4.0", lower.value(1, 999));
+        assertEquals("3.0", low.value(1, 999));
+        assertEquals("hello", lower.value(0, 1));
+    }
+
+    @Test
+    void testBadEdit() {
+        SheetBranch b = sheet.branch();
+        b.set(0, 0, "1");
+        assertThrows(IllegalArgumentException.class, () -> b.setAll(new int[]{0, 5}, new int[]{1, 0}, new String[]{"2", "3"}));
+        assertEquals("3.0", b.value(1, 999));// Neither the branch
+        sheet.set(0, 0, "10");// nor its origin are left in a batch
+        assertEquals("21.0", sheet.value(1, 999));
+        b.set(0, 0, "4");
+        assertEquals("9.0", b.value(1, 999));
+    }
+
+    @Test
+    void testSharedTiles() {
+        SheetBranch b = sheet.branch();
+        assertEquals(0, b.snapshot().diff(sheet.snapshot()).length);
+        b.set(2, 700, "7");
+        assertArrayEquals(new int[]{2, 700}, b.snapshot().diff(sheet.snapshot()));
+        b.set(2, 700, "");
+        assertEquals(0, b.snapshot().diff(sheet.snapshot()).length);
+        assertEquals("", b.value(2, 700));
+    }
+
+    @Test
+    void testLoad() throws IOException {
+        File f = File.createTempFile("branch", ".txt");
+        SheetBranch b = sheet.branch();
+        b.set(0, 0, "2");
+        b.save(f.getAbsolutePath());
+        SheetBranch c = sheet.branch();
+        c.set(2, 3, "text");
+        c.load(f.getAbsolutePath());
+        assertEquals("5.0", c.value(1, 999));
+        assertEquals("", c.value(2, 3));
+        assertEquals("21.0", sheet.value(1, 999));
+        f.delete();
+    }
+
+    @Test
+    void testFailedEdit() {
+        Ex2Sheet engine = new Ex2Sheet(3, 10) {
+            @Override
+            public void set(int x, int y, String s) {
+                if (s.equals("fail")) {
+                    throw new IllegalStateException("injected");// After the cells before it were set
+                }
+                super.set(x, y, s);
+            }
+        };
+        ConcurrentSheet origin = new ConcurrentSheet(engine);
+        origin.set(0, 0, "1");
+        origin.set(1, 0, "=A0+1");
+        SheetBranch branch = origin.branch();
+        branch.set(0, 1, "7");// A difference from the origin, applied again by the next edit
+        assertThrows(IllegalStateException.class, () -> branch.setAll(new int[]{0, 2}, new int[]{0, 0}, new String[]{"5", "fail"}));
+        assertEquals("1.0", branch.value(0, 0));// The branch is not changed
+        origin.set(2, 1, "=A0+A1");// Computed by the engine, which must hold the data of the origin again
+        assertEquals(Ex2Utils.ERR_FORM, origin.value(2, 1));// A1 is empty in the origin, 12.0 if the branch had leaked
+        assertEquals("2.0", origin.value(1, 0));
+        branch.set(2, 1, "=A0+A1");
+        assertEquals("8.0", branch.value(2, 1));
+    }
+}
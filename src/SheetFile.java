@@ -0,0 +1,420 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is a binary, memory mapped spreadsheet file, and a sheet read from it: opening it only maps the file
+ * and reads its header, and a cell is found and decoded only when it is read, so a huge sheet opens at once.
+ * The file is (all numbers big endian):
+ * a header of HEADER bytes (MAGIC, VERSION, width, height, the number of cells, the number of tiles),
+ * a tile directory: for each tile (a part of a column, CellStore.CHUNK rows, column by column) the number of the cells
+ * before it (and the total at the end), an int each,
+ * the cell index: for each non empty cell (by x * height + y) its row (an int) and the offset of its payload (a long),
+ * and the payloads: for each cell its type, the lengths of its data, value and evaluation (ints, -1 for a null evaluation)
+ * and then these strings (UTF-8).
+ * A cell is found through the directory and a binary search among the cells of its tile (at most CHUNK of them),
+ * so reading a cell takes O(1) whatever the size of the sheet.
+ * The reads (get, value, eval) return what the saved sheet gave, which is what it would compute again.
+ * The first edit (set, eval() or depth()) decodes all the cells into an Ex2Sheet, which then answers everything.
+ * The text format of Ex2Sheet.save stays the default, Ex2Sheet.load reads both (see isSheetFile).
+ */
+public class SheetFile implements Sheet {
+    public static final int MAGIC = 0x45583242;// "EX2B", never the start of a text file (its first line is a header)
+    public static final int VERSION = 1;
+    public static final int HEADER = 32;
+    public static final int TILE = CellStore.CHUNK;// The number of rows in a tile
+    private static final int ENTRY = 12;// An int row and a long payload offset
+    private static final int PAYLOAD = 16;// The type and the lengths of the strings of a cell
+    private static final long SEGMENT = 1L << 30;// The file is mapped in parts of this size (a buffer holds less than 2GB)
+    private final MappedByteBuffer[] segments;
+    private final int width, height, size, tilesPerColumn;
+    private final long index;// The offset of the cell index
+    private Ex2Sheet sheet = null;// The decoded cells, once this sheet was edited
+
+    private SheetFile(MappedByteBuffer[] segments) throws IOException {
+        this.segments = segments;
+        if (segments.length == 0 || segments[0].capacity() < HEADER || segments[0].getInt(0) != MAGIC) {
+            throw new IOException("Not a binary sheet file");
+        }
+        if (segments[0].getInt(4) != VERSION) {
+            throw new IOException("Unknown binary sheet version: " + segments[0].getInt(4));
+        }
+        width = segments[0].getInt(8);
+        height = segments[0].getInt(12);
+        size = segments[0].getInt(16);
+        tilesPerColumn = (height - 1) / TILE + 1;// Rounded up (height + TILE - 1 may overflow)
+        index = HEADER + 4L * (segments[0].getInt(20) + 1);
+    }
+
+    /**
+     * Opens a binary sheet file, only its header is read.
+     *
+     * @param fileName The name of the file.
+     * @return The file.
+     * @throws IOException If the file can not be read or is not a binary sheet file.
+     */
+    public static SheetFile open(String fileName) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel ch = f.getChannel();
+            long length = ch.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < segments.length; i = i + 1) {
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, i * SEGMENT, Math.min(SEGMENT, length - i * SEGMENT));
+            }
+            return new SheetFile(segments);// The mapping stays valid after the channel is closed
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Checks if a file is a binary sheet file (else it is taken to be in the text format).
+     *
+     * @param fileName The name of the file.
+     * @return True if the file starts with MAGIC.
+     * @throws IOException If the file can not be read.
+     */
+    public static boolean isSheetFile(String fileName) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(fileName, "r");
+        try {
+            return f.length() >= HEADER && f.readInt() == MAGIC;
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Writes the non empty cells of a sheet, with their values, as a binary sheet file.
+     *
+     * @param sheet    The sheet.
+     * @param fileName The name of the file.
+     * @throws IOException If an error occurs while writing to the file.
+     */
+    public static void save(Ex2Sheet sheet, String fileName) throws IOException {
+        int width = sheet.width(), height = sheet.height();
+        int tilesPerColumn = (height - 1) / TILE + 1;// Rounded up (height + TILE - 1 may overflow)
+        int tiles = width * tilesPerColumn;
+        int[] cells = sheet.nonEmptyCells();// Column by column, the order of the tiles
+        int count = cells.length / 2;
+        int[] before = new int[tiles + 1];
+        for (int i = 0; i < count; i = i + 1) {
+            before[cells[2 * i] * tilesPerColumn + cells[2 * i + 1] / TILE + 1]++;
+        }
+        for (int k = 0; k < tiles; k = k + 1) {
+            before[k + 1] += before[k];
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(count);
+        out.writeInt(tiles);
+        out.writeLong(0);// Reserved
+        for (int k = 0; k <= tiles; k = k + 1) {
+            out.writeInt(before[k]);
+        }
+        long offset = HEADER + 4L * (tiles + 1) + (long) ENTRY * count;
+        for (int i = 0; i < count; i = i + 1) {
+            int x = cells[2 * i], y = cells[2 * i + 1];
+            out.writeInt(y);
+            out.writeLong(offset);
+            String eval = sheet.eval(x, y);
+            offset += PAYLOAD + utf8(sheet.get(x, y).getData()).length + utf8(sheet.value(x, y)).length + (eval == null ? 0 : utf8(eval).length);
+        }
+        for (int i = 0; i < count; i = i + 1) {
+            int x = cells[2 * i], y = cells[2 * i + 1];
+            byte[] data = utf8(sheet.get(x, y).getData()), value = utf8(sheet.value(x, y));
+            String eval = sheet.eval(x, y);
+            byte[] e = eval == null ? new byte[0] : utf8(eval);
+            out.writeInt(sheet.get(x, y).getType());
+            out.writeInt(data.length);
+            out.writeInt(value.length);
+            out.writeInt(eval == null ? -1 : e.length);
+            out.write(data);
+            out.write(value);
+            out.write(e);
+        }
+        out.close();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean isIn(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    @Override
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    @Override
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return The number of non empty cells in the file (the cells edited since it was opened are not counted).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The data of the cell ("" for an empty cell).
+     */
+    public String data(int x, int y) {
+        if (sheet != null) {
+            return isIn(x, y) ? sheet.get(x, y).getData() : "";
+        }
+        long p = payload(find(x, y));
+        if (p < 0) {
+            return "";
+        }
+        return string(p + PAYLOAD, getInt(p + 4));
+    }
+
+    @Override
+    public Cell get(int x, int y) {
+        if (!isIn(x, y)) {
+            return null;
+        }
+        if (sheet != null) {
+            return sheet.get(x, y);
+        }
+        long p = payload(find(x, y));
+        SCell ans = new SCell(p < 0 ? "" : string(p + PAYLOAD, getInt(p + 4)), x, y);
+        if (p >= 0) {
+            ans.setType(getInt(p));
+        }
+        return ans;
+    }
+
+    @Override
+    public Cell get(String entry) {
+        long key = CellEntry.parse(entry);
+        if (key == CellEntry.INVALID) {
+            return null;
+        }
+        return get(CellEntry.keyX(key), CellEntry.keyY(key));
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The value of the cell, as Ex2Sheet.value(x, y) gives it ("" for an empty cell).
+     */
+    @Override
+    public String value(int x, int y) {
+        if (sheet != null) {
+            return isIn(x, y) ? sheet.value(x, y) : "";
+        }
+        long p = payload(find(x, y));
+        if (p < 0) {
+            return "";
+        }
+        return string(p + PAYLOAD + getInt(p + 4), getInt(p + 8));
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The evaluated cell, as Ex2Sheet.eval(x, y) gives it ("" for an empty cell).
+     */
+    @Override
+    public String eval(int x, int y) {
+        if (sheet != null) {
+            return isIn(x, y) ? sheet.eval(x, y) : "";
+        }
+        long p = payload(find(x, y));
+        if (p < 0) {
+            return "";
+        }
+        int length = getInt(p + 12);
+        if (length < 0) {
+            return null;
+        }
+        return string(p + PAYLOAD + getInt(p + 4) + getInt(p + 8), length);
+    }
+
+    @Override
+    public void set(int x, int y, String c) {
+        sheet().set(x, y, c);
+    }
+
+    @Override
+    public void eval() {
+        sheet().eval();
+    }
+
+    @Override
+    public int[][] depth() {
+        return sheet().depth();
+    }
+
+    /**
+     * Saves the cells in the text format of Ex2Sheet.save, they are copied from the file while it was not edited.
+     *
+     * @param fileName The name of the file.
+     * @throws IOException If an error occurs while writing to the file.
+     */
+    @Override
+    public void save(String fileName) throws IOException {
+        if (sheet != null) {
+            sheet.save(fileName);
+            return;
+        }
+        FileWriter myWriter = new FileWriter(fileName);
+        myWriter.write("I2CS ArielU: SpreadSheet (Ex2) assignment - this line should be ignored in the load method\n");
+        for (int k = 0; k < width * tilesPerColumn; k = k + 1) {// Column by column, as Ex2Sheet.save
+            for (int e = getInt(HEADER + 4L * k); e < getInt(HEADER + 4L * (k + 1)); e = e + 1) {
+                long p = payload(e);
+                myWriter.write(k / tilesPerColumn + "," + getInt(index + (long) ENTRY * e) + "," + string(p + PAYLOAD, getInt(p + 4)) + "\n");
+            }
+        }
+        myWriter.close();
+    }
+
+    /**
+     * Replaces the cells by the cells of a file (see Ex2Sheet.load), a binary file keeps its own size.
+     *
+     * @param fileName The name of the file.
+     * @throws IOException If the file can not be read.
+     */
+    @Override
+    public void load(String fileName) throws IOException {
+        Ex2Sheet sp = new Ex2Sheet(width, height);
+        sp.load(fileName);
+        sheet = sp;
+    }
+
+    /**
+     * Sets all the cells of the file in a sheet, in one batch: they are computed again (the saved values are not used).
+     *
+     * @param sp The sheet, at least as large as the file.
+     */
+    public void copyTo(Ex2Sheet sp) {
+        sp.begin();
+        try {
+            for (int k = 0; k < width * tilesPerColumn; k = k + 1) {
+                for (int e = getInt(HEADER + 4L * k); e < getInt(HEADER + 4L * (k + 1)); e = e + 1) {
+                    long p = payload(e);
+                    sp.set(k / tilesPerColumn, getInt(index + (long) ENTRY * e), string(p + PAYLOAD, getInt(p + 4)));
+                }
+            }
+        } finally {
+            sp.commit();
+        }
+    }
+
+    private Ex2Sheet sheet() {// The cells as an Ex2Sheet, decoded on the first edit
+        if (sheet == null) {
+            Ex2Sheet sp = new Ex2Sheet(width, height);
+            copyTo(sp);
+            sheet = sp;
+        }
+        return sheet;
+    }
+
+    /**
+     * @param i The number of a cell (0 to size() - 1, column by column).
+     * @return The coordinates of the cell {x, y}.
+     */
+    public int[] cell(int i) {
+        int lo = 0, hi = width * tilesPerColumn - 1;// The tile of the cell: the last tile with at most i cells before it
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getInt(HEADER + 4L * mid) <= i) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new int[]{lo / tilesPerColumn, getInt(index + (long) ENTRY * i)};
+    }
+
+    /**
+     * Finds a cell in the index.
+     *
+     * @return The number of the cell, or -1 if the cell is empty (or out of the sheet).
+     */
+    private int find(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        long tile = HEADER + 4L * (x * tilesPerColumn + y / TILE);
+        int lo = getInt(tile), hi = getInt(tile + 4) - 1;
+        while (lo <= hi) {// Binary search among the cells of the tile, sorted by row
+            int mid = (lo + hi) >>> 1;
+            int row = getInt(index + (long) ENTRY * mid);
+            if (row == y) {
+                return mid;
+            }
+            if (row < y) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    private long payload(int e) {
+        return e < 0 ? -1 : getLong(index + (long) ENTRY * e + 4);
+    }
+
+    private int getInt(long pos) {
+        MappedByteBuffer s = segments[(int) (pos / SEGMENT)];
+        int from = (int) (pos % SEGMENT);
+        if (from + 4 <= s.capacity()) {
+            return s.getInt(from);
+        }
+        return ByteBuffer.wrap(bytes(pos, 4)).getInt();
+    }
+
+    private long getLong(long pos) {
+        MappedByteBuffer s = segments[(int) (pos / SEGMENT)];
+        int from = (int) (pos % SEGMENT);
+        if (from + 8 <= s.capacity()) {
+            return s.getLong(from);
+        }
+        return ByteBuffer.wrap(bytes(pos, 8)).getLong();
+    }
+
+    private String string(long pos, int length) {
+        return new String(bytes(pos, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(long pos, int length) {// Reads bytes from the mapped segments (a value may cross the end of a segment)
+        byte[] ans = new byte[length];
+        int n = 0;
+        while (n < length) {
+            MappedByteBuffer s = segments[(int) ((pos + n) / SEGMENT)];
+            int from = (int) ((pos + n) % SEGMENT);
+            int k = Math.min(length - n, s.capacity() - from);
+            s.get(from, ans, n, k);
+            n = n + k;
+        }
+        return ans;
+    }
+}
@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+
+class SheetFileTest {
+
+    @Test
+    void testSaveAndOpen() throws IOException {
+        Ex2Sheet sheet = new Ex2Sheet(4, 1000);
+        sheet.set(0, 0, "2");
+        sheet.set(0, 999, "=A0*3");
+        sheet.set(1, 300, "שלום");// Not ASCII
+        sheet.set(3, 256, "=sum(A0:A999)");
+        sheet.set(2, 5, "=C5");
+        File f = File.createTempFile("sheet", ".ex2b");
+        SheetFile.save(sheet, f.getPath());
+        assertTrue(SheetFile.isSheetFile(f.getPath()));
+        SheetFile file = SheetFile.open(f.getPath());
+        assertEquals(4, file.width());
+        assertEquals(1000, file.height());
+        assertEquals(5, file.size());
+        assertEquals("=A0*3", file.data(0, 999));
+        assertEquals("6.0", file.value(0, 999));
+        assertEquals("שלום", file.value(1, 300));
+        assertEquals("8.0", file.value(3, 256));
+        assertEquals(Ex2Utils.ERR_CYCLE, file.value(2, 5));
+        assertEquals("", file.data(0, 1));
+        assertEquals("", file.value(3, 255));
+        assertEquals("", file.data(7, 1));
+        assertArrayEquals(new int[]{1, 300}, file.cell(2));
+        assertArrayEquals(new int[]{3, 256}, file.cell(4));
+        Ex2Sheet loaded = new Ex2Sheet(4, 1000);
+        loaded.load(f.getPath());// The binary format is recognized
+        for (int x = 0; x < 4; x = x + 1) {
+            for (int y = 0; y < 1000; y = y + 1) {
+                assertEquals(sheet.value(x, y), loaded.value(x, y));
+            }
+        }
+        File text = File.createTempFile("sheet", ".txt");
+        sheet.save(text.getPath());
+        assertFalse(SheetFile.isSheetFile(text.getPath()));
+        f.delete();
+        text.delete();
+    }
+
+    @Test
+    void testView() throws IOException {
+        Ex2Sheet sheet = new Ex2Sheet(4, 1000);
+        sheet.set(0, 0, "2");
+        sheet.set(0, 999, "=A0*3");
+        sheet.set(1, 300, "text");
+        sheet.set(3, 256, "=sum(A0:A999)");
+        sheet.set(2, 5, "=C5");
+        sheet.set(2, 6, "=if(A0>1,big,small)");
+        File f = File.createTempFile("sheet", ".ex2b");
+        SheetFile.save(sheet, f.getPath());
+        Sheet file = SheetFile.open(f.getPath());// Read through the Sheet interface, from the saved values
+        for (int x = 0; x < 4; x = x + 1) {
+            for (int y = 0; y < 1000; y = y + 1) {
+                assertEquals(sheet.value(x, y), file.value(x, y));
+                assertEquals(sheet.eval(x, y), file.eval(x, y));
+                assertEquals(sheet.get(x, y).getData(), file.get(x, y).getData());
+                assertEquals(sheet.get(x, y).getType(), file.get(x, y).getType());
+            }
+        }
+        assertEquals("=A0*3", file.get("A999").getData());
+        assertNull(file.get(4, 0));
+        assertNull(file.get("E0"));
+        File text = File.createTempFile("sheet", ".txt");
+        file.save(text.getPath());// Copied from the binary file
+        Ex2Sheet copy = new Ex2Sheet(4, 1000);
+        copy.load(text.getPath());
+        assertEquals("6.0", copy.value(0, 999));
+        assertEquals("big", copy.value(2, 6));
+        file.set(0, 0, "5");// Decodes the cells, which are then computed again
+        assertEquals("15.0", file.value(0, 999));
+        assertEquals("20.0", file.eval(3, 256));
+        assertEquals(2, file.depth()[3][256]);
+        assertEquals("2.0", sheet.value(0, 0));// The saved sheet is not changed
+        assertEquals("2.0", SheetFile.open(f.getPath()).value(0, 0));// Nor is the file
+        file.save(text.getPath());
+        copy.load(text.getPath());
+        assertEquals("15.0", copy.value(0, 999));
+        f.delete();
+        text.delete();
+    }
+
+    @Test
+    void testLoadSize() throws IOException {
+        Ex2Sheet sheet = new Ex2Sheet(30, 500);
+        sheet.set(29, 499, "7");
+        sheet.set(0, 0, "=AD499+1");
+        File f = File.createTempFile("sheet", ".ex2b");
+        SheetFile.save(sheet, f.getPath());
+        Ex2Sheet small = new Ex2Sheet(2, 3);
+        small.load(f.getPath());// Takes the size of the file, no cell is dropped
+        assertEquals(30, small.width());
+        assertEquals(500, small.height());
+        assertEquals("7.0", small.value(29, 499));
+        assertEquals("8.0", small.value(0, 0));
+        ConcurrentSheet concurrent = new ConcurrentSheet(9, 17);
+        concurrent.load(f.getPath());
+        assertEquals(30, concurrent.width());
+        assertEquals("8.0", concurrent.value(0, 0));
+        SheetBranch branch = new ConcurrentSheet(9, 17).branch();
+        assertThrows(IOException.class, () -> branch.load(f.getPath()));// A branch keeps the size of its origin
+        f.delete();
+    }
+}
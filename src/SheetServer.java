@@ -0,0 +1,326 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is a headless spreadsheet server: many named sheets served over HTTP on localhost, instead of one Ex2GUI per sheet.
+ * Every request is a GET of /op?sheet=name&... (the parameters are URL encoded), the answer is plain text:
+ * /open (w, h: the size of a new sheet), /set (cell, data), /value (cell), /eval (cell, or none to evaluate all the cells)
+ * and /save. A cell is given by its name, e.g. "B3".
+ * Every sheet is a ConcurrentSheet, so the writes of a sheet are serialized while its reads do not wait.
+ * A sheet is created (or loaded from the directory, if it was saved) when it is first used, and the least recently used
+ * sheets which are not in use are saved to the directory and evicted when there are more than maxSheets of them.
+ * A saved sheet is kept as name.txt, with its size in name.size, so it is loaded again at the size it had.
+ * A sheet is loaded (and an evicted one saved) outside the lock of the sheets, so a slow file only delays the requests of its sheet.
+ * Each request runs on its own thread of a cached pool (JDK 17 has no virtual threads, the pool reuses idle threads).
+ * Run: java SheetServer [port] [directory] [maxSheets]
+ */
+public class SheetServer {
+    public static final int DEFAULT_PORT = 8042;
+    public static final int DEFAULT_MAX_SHEETS = 64;
+    private final HttpServer server;
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final File directory;// Where the evicted and saved sheets are kept
+    private final int maxSheets;
+    private final LinkedHashMap<String, Tenant> sheets = new LinkedHashMap<>(16, 0.75f, true);// In access order, guarded by itself
+    private final HashMap<String, Tenant> evicted = new HashMap<>();// The evicted sheets which are being saved, guarded by sheets
+
+    static {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {// Small answers are otherwise delayed ~40 ms by Nagle's algorithm
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final class Tenant {
+        final CompletableFuture<ConcurrentSheet> sheet = new CompletableFuture<>();// Completed once the sheet is created or loaded
+        final AtomicBoolean opening = new AtomicBoolean();// Set by the request which creates or loads the sheet
+        int users = 0;// The requests using the sheet now, it is not evicted while positive (guarded by sheets)
+    }
+
+    /**
+     * Creates a server on localhost (it is not started).
+     *
+     * @param port      The port, 0 for any free port.
+     * @param directory The directory of the saved sheets.
+     * @param maxSheets The number of sheets kept in memory.
+     * @throws IOException If the port can not be bound.
+     */
+    public SheetServer(int port, File directory, int maxSheets) throws IOException {
+        this.directory = directory;
+        this.maxSheets = maxSheets;
+        directory.mkdirs();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(pool);
+    }
+
+    /** The main function for running the server */
+    public static void main(String[] a) throws IOException {
+        int port = a.length >= 1 ? Integer.parseInt(a[0]) : DEFAULT_PORT;
+        File dir = new File(a.length >= 2 ? a[1] : "sheets");
+        int max = a.length >= 3 ? Integer.parseInt(a[2]) : DEFAULT_MAX_SHEETS;
+        SheetServer s = new SheetServer(port, dir, max);
+        s.start();
+        System.out.println("Serving sheets from " + dir.getAbsolutePath() + " on http://localhost:" + s.port() + "/");
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server and saves all the sheets in memory.
+     */
+    public void stop() {
+        server.stop(0);
+        pool.shutdown();
+        synchronized (sheets) {
+            for (Map.Entry<String, Tenant> e : sheets.entrySet()) {
+                if (e.getValue().sheet.getNow(null) != null) {// Not a sheet which could not be loaded
+                    save(e.getKey(), e.getValue());
+                }
+            }
+            sheets.clear();
+        }
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of sheets in memory.
+     */
+    public int size() {
+        synchronized (sheets) {
+            return sheets.size();
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        int status = 200;
+        String ans;
+        Tenant t = null;
+        try {
+            Map<String, String> p = parameters(ex.getRequestURI().getRawQuery());// Throws IllegalArgumentException on a bad %-escape
+            String op = ex.getRequestURI().getPath().substring(1);
+            String name = p.get("sheet");
+            if (name == null || !name.matches("[A-Za-z0-9_-]+")) {
+                throw new IllegalArgumentException("bad sheet name: " + name);
+            }
+            t = acquire(name);
+            ans = apply(op, name, t, open(name, t, p), p);
+        } catch (IllegalArgumentException | IOException e) {
+            status = 400;
+            ans = e.getMessage();
+        } catch (RuntimeException e) {// A bug, the client still gets an answer
+            e.printStackTrace();
+            status = 500;
+            ans = "internal error: " + e;
+        } finally {
+            if (t != null) {
+                synchronized (sheets) {
+                    t.users--;
+                }
+                release();// Saving an evicted sheet never throws (a failure keeps it in memory)
+            }
+        }
+        byte[] body = (ans == null ? "" : ans).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        OutputStream out = ex.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private String apply(String op, String name, Tenant t, ConcurrentSheet sheet, Map<String, String> p) throws IOException {
+        String ans = "";
+        if (op.equals("open")) {
+            ans = sheet.width() + "," + sheet.height();
+        } else if (op.equals("set")) {
+            int[] c = cell(sheet, p);
+            String data = p.get("data");
+            sheet.set(c[0], c[1], data == null ? "" : data);
+            ans = sheet.value(c[0], c[1]);
+        } else if (op.equals("value")) {
+            int[] c = cell(sheet, p);
+            ans = sheet.value(c[0], c[1]);
+        } else if (op.equals("eval")) {
+            if (p.get("cell") == null) {
+                sheet.eval();
+            } else {
+                int[] c = cell(sheet, p);
+                ans = sheet.eval(c[0], c[1]);
+            }
+        } else if (op.equals("save")) {
+            write(name, t);
+        } else {
+            throw new IllegalArgumentException("unknown operation: " + op);
+        }
+        return ans;
+    }
+
+    private Tenant acquire(String name) {// Gets the tenant of a sheet and marks it as in use (the sheet may not be open yet)
+        synchronized (sheets) {
+            Tenant t = sheets.get(name);
+            if (t == null) {
+                t = evicted.remove(name);// Still being saved, its sheet is used again as it is
+                if (t == null) {
+                    t = new Tenant();
+                }
+                sheets.put(name, t);
+            }
+            t.users++;
+            return t;
+        }
+    }
+
+    private ConcurrentSheet open(String name, Tenant t, Map<String, String> p) throws IOException {// Waits for the sheet of a tenant, the first request creates or loads it
+        if (t.opening.compareAndSet(false, true)) {
+            try {
+                int[] size = size(name, p);
+                ConcurrentSheet sheet = new ConcurrentSheet(size[0], size[1]);
+                if (file(name).exists()) {
+                    sheet.load(file(name).getPath());
+                }
+                t.sheet.complete(sheet);
+            } catch (IOException | RuntimeException | Error e) {
+                synchronized (sheets) {// A later request tries again
+                    sheets.remove(name, t);
+                }
+                t.sheet.completeExceptionally(e);
+            }
+        }
+        try {
+            return t.sheet.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private int[] size(String name, Map<String, String> p) throws IOException {// The size of a saved sheet, else of the request (or the default size)
+        if (file(name).exists() && sizeFile(name).exists()) {
+            String text = Files.readString(sizeFile(name).toPath()).trim();
+            String[] s = text.split(",");
+            int w = s.length == 2 ? NumberScanner.parseInt(s[0], -1) : -1;
+            int h = s.length == 2 ? NumberScanner.parseInt(s[1], -1) : -1;
+            if (w <= 0 || h <= 0 || (long) w * h > Integer.MAX_VALUE) {// A broken file, not a bug of the server
+                throw new IOException("bad size file of sheet " + name + ": " + text);
+            }
+            return new int[]{w, h};
+        }
+        int w = p.get("w") == null ? Ex2Utils.WIDTH : Integer.parseInt(p.get("w"));
+        int h = p.get("h") == null ? Ex2Utils.HEIGHT : Integer.parseInt(p.get("h"));
+        if (w <= 0 || h <= 0) {
+            throw new IllegalArgumentException("bad size: " + w + "," + h);
+        }
+        return new int[]{w, h};
+    }
+
+    private void release() {// Evicts the least recently used sheets which are not in use, they are saved after the lock is released
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Tenant> tenants = new ArrayList<>();
+        synchronized (sheets) {
+            Iterator<Map.Entry<String, Tenant>> it = sheets.entrySet().iterator();
+            while (sheets.size() > maxSheets && it.hasNext()) {
+                Map.Entry<String, Tenant> e = it.next();
+                if (e.getValue().users == 0) {// So its sheet is open
+                    names.add(e.getKey());
+                    tenants.add(e.getValue());
+                    evicted.put(e.getKey(), e.getValue());
+                    it.remove();
+                }
+            }
+        }
+        for (int i = 0; i < names.size(); i = i + 1) {
+            boolean saved = save(names.get(i), tenants.get(i));
+            synchronized (sheets) {
+                if (evicted.remove(names.get(i), tenants.get(i)) && !saved) {// Not used again meanwhile, but its edits are only in memory
+                    sheets.put(names.get(i), tenants.get(i));// Kept, and saved again when it is evicted next
+                }
+            }
+        }
+    }
+
+    private boolean save(String name, Tenant t) {// True if the sheet was saved
+        try {
+            write(name, t);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Sheet: " + name + " could not be saved");
+            return false;
+        }
+    }
+
+    private void write(String name, Tenant t) throws IOException {// Saves a sheet and its size, one save of a sheet at a time
+        synchronized (t) {
+            ConcurrentSheet sheet = t.sheet.join();
+            sheet.save(file(name).getPath());
+            Files.writeString(sizeFile(name).toPath(), sheet.width() + "," + sheet.height());
+        }
+    }
+
+    private File file(String name) {
+        return new File(directory, name + ".txt");
+    }
+
+    private File sizeFile(String name) {
+        return new File(directory, name + ".size");
+    }
+
+    private static int[] cell(ConcurrentSheet sheet, Map<String, String> p) {
+        String name = p.get("cell");
+        long key = name == null ? CellEntry.INVALID : CellEntry.parse(name);
+        int x = CellEntry.keyX(key), y = CellEntry.keyY(key);
+        if (key == CellEntry.INVALID || !sheet.isIn(x, y)) {
+            throw new IllegalArgumentException("bad cell: " + name);
+        }
+        return new int[]{x, y};
+    }
+
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> ans = new HashMap<>();
+        if (query == null) {
+            return ans;
+        }
+        String[] parts = query.split("&");
+        for (int i = 0; i < parts.length; i = i + 1) {
+            int eq = parts[i].indexOf('=');
+            if (eq > 0) {
+                ans.put(URLDecoder.decode(parts[i].substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parts[i].substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return ans;
+    }
+}
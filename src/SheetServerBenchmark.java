@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A load generator for SheetServer: starts a server on localhost (or uses a running one), then every client thread
+ * sends requests to its own sheet, mostly reads with some edits (each edit recalculates a column sum),
+ * and finally prints the requests per second and the latency percentiles.
+ * Run: java SheetServerBenchmark [clients] [requests per client] [sheets] [port of a running server]
+ */
+public class SheetServerBenchmark {
+    private static final int WIDTH = 10, HEIGHT = 200;
+
+    /** The main function for running the benchmark */
+    public static void main(String[] a) throws Exception {
+        int clients = 16, requests = 2000, sheets = 8;
+        if (a.length >= 3) {
+            clients = Integer.parseInt(a[0]);
+            requests = Integer.parseInt(a[1]);
+            sheets = Integer.parseInt(a[2]);
+        }
+        SheetServer server = null;
+        int port;
+        if (a.length >= 4) {
+            port = Integer.parseInt(a[3]);
+        } else {
+            File dir = Files.createTempDirectory("sheets").toFile();
+            server = new SheetServer(0, dir, sheets);
+            server.start();
+            port = server.port();
+        }
+        String base = "http://localhost:" + port + "/";
+        for (int s = 0; s < sheets; s = s + 1) {
+            for (int x = 0; x < WIDTH; x = x + 1) {
+                get(base + "set?sheet=load" + s + "&w=" + WIDTH + "&h=" + HEIGHT + "&cell=" + CellEntry.name(x, 0)
+                        + "&data=" + URLEncoder.encode("=sum(" + CellEntry.name(x, 1) + ":" + CellEntry.name(x, HEIGHT - 1) + ")", StandardCharsets.UTF_8));
+            }
+        }
+        long[][] latency = new long[clients][requests];
+        Thread[] threads = new Thread[clients];
+        int sheetCount = sheets, perClient = requests;
+        long t0 = System.nanoTime();
+        for (int c = 0; c < clients; c = c + 1) {
+            int client = c;
+            threads[c] = new Thread(() -> run(base, "load" + (client % sheetCount), perClient, new Random(client), latency[client]));
+            threads[c].start();
+        }
+        for (int c = 0; c < clients; c = c + 1) {
+            threads[c].join();
+        }
+        long t1 = System.nanoTime();
+        long[] all = new long[clients * requests];
+        for (int c = 0; c < clients; c = c + 1) {
+            System.arraycopy(latency[c], 0, all, c * requests, requests);
+        }
+        Arrays.sort(all);
+        System.out.println(clients + " clients, " + all.length + " requests over " + sheets + " sheets in " + (t1 - t0) / 1000000 + " ms");
+        System.out.println("requests / s: " + (long) (all.length / ((t1 - t0) / 1e9)));
+        System.out.println("p50: " + micros(all, 0.5) + " us, p99: " + micros(all, 0.99) + " us, p99.9: " + micros(all, 0.999) + " us, max: " + all[all.length - 1] / 1000 + " us");
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static void run(String base, String sheet, int requests, Random r, long[] latency) {
+        for (int i = 0; i < requests; i = i + 1) {
+            String cell = CellEntry.name(r.nextInt(WIDTH), 1 + r.nextInt(HEIGHT - 1));
+            String url;
+            if (r.nextInt(10) < 2) {// 20% edits
+                url = base + "set?sheet=" + sheet + "&cell=" + cell + "&data=" + r.nextInt(1000);
+            } else {
+                url = base + "value?sheet=" + sheet + "&cell=" + CellEntry.name(r.nextInt(WIDTH), 0);
+            }
+            long t = System.nanoTime();
+            try {
+                get(url);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            latency[i] = System.nanoTime() - t;
+        }
+    }
+
+    private static String get(String url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        InputStream in = c.getResponseCode() == 200 ? c.getInputStream() : c.getErrorStream();
+        String ans = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        if (in != null) {
+            in.close();
+        }
+        return ans;
+    }
+
+    private static long micros(long[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))] / 1000;
+    }
+}
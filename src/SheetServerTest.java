@@ -0,0 +1,158 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class SheetServerTest {
+    private SheetServer server;
+    private File dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("sheets").toFile();
+        server = new SheetServer(0, dir, 2);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i = i + 1) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private String get(String op, String query) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + server.port() + "/" + op + "?" + query).openConnection();
+        InputStream in = c.getResponseCode() == 200 ? c.getInputStream() : c.getErrorStream();
+        String ans = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        if (in != null) {
+            in.close();
+        }
+        return c.getResponseCode() + ":" + ans;
+    }
+
+    private static String enc(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testOperations() throws IOException {
+        assertEquals("200:5,10", get("open", "sheet=a&w=5&h=10"));
+        assertEquals("200:3.0", get("set", "sheet=a&cell=A1&data=3"));
+        assertEquals("200:7.0", get("set", "sheet=a&cell=B2&data=" + enc("=A1*2+1")));
+        assertEquals("200:7.0", get("value", "sheet=a&cell=B2"));
+        assertEquals("200:7.0", get("eval", "sheet=a&cell=B2"));
+        assertEquals("200:", get("eval", "sheet=a"));
+        assertEquals("200:", get("save", "sheet=a"));
+        assertTrue(new File(dir, "a.txt").exists());
+        assertEquals(400, Integer.parseInt(get("value", "sheet=a&cell=Z99").split(":")[0]));
+        assertEquals(400, Integer.parseInt(get("value", "sheet=../a&cell=A1").split(":")[0]));
+        assertEquals(400, Integer.parseInt(get("drop", "sheet=a").split(":")[0]));
+    }
+
+    @Test
+    void testEviction() throws IOException {
+        get("set", "sheet=a&w=5&h=10&cell=A1&data=4");
+        get("set", "sheet=b&w=5&h=10&cell=A1&data=5");
+        get("set", "sheet=c&w=5&h=10&cell=A1&data=6");
+        assertEquals(2, server.size());// a was saved and evicted
+        assertTrue(new File(dir, "a.txt").exists());
+        assertEquals("200:4.0", get("value", "sheet=a&w=5&h=10&cell=A1"));// loaded again
+        assertEquals("200:6.0", get("value", "sheet=c&cell=A1"));
+        assertEquals(2, server.size());
+    }
+
+    @Test
+    void testEvictionKeepsSize() throws IOException {
+        get("set", "sheet=big&w=30&h=200&cell=" + enc("AC150") + "&data=4");
+        get("set", "sheet=b&cell=A1&data=5");
+        get("set", "sheet=c&cell=A1&data=6");
+        assertTrue(new File(dir, "big.size").exists());// big was saved and evicted
+        assertEquals("200:30,200", get("open", "sheet=big"));// loaded again at its own size, not the default one
+        assertEquals("200:4.0", get("value", "sheet=big&cell=" + enc("AC150")));
+    }
+
+    @Test
+    void testFailures() throws IOException {
+        assertEquals(400, Integer.parseInt(get("open", "sheet=a&w=0&h=5").split(":")[0]));
+        assertEquals("200:3,4", get("open", "sheet=a&w=3&h=4"));// the failed open is not kept
+        Files.writeString(new File(dir, "d.txt").toPath(), "header\n0,0,1\n");
+        Files.writeString(new File(dir, "d.size").toPath(), "5");// a broken size file is bad input
+        assertEquals("400:bad size file of sheet d: 5", get("value", "sheet=d&cell=A0"));
+        Files.writeString(new File(dir, "d.size").toPath(), "5,x");
+        assertEquals(400, Integer.parseInt(get("value", "sheet=d&cell=A0").split(":")[0]));
+        Files.writeString(new File(dir, "d.size").toPath(), "5,10");
+        assertEquals("200:1.0", get("value", "sheet=d&cell=A0"));
+        assertEquals(400, Integer.parseInt(get("value", "sheet=%zz&cell=A0").split(":")[0]));// a bad %-escape
+        assertEquals(400, Integer.parseInt(get("value", "sheet=d&cell=%G1").split(":")[0]));
+    }
+
+    @Test
+    void testFailedSave() throws IOException {
+        File blocked = new File(dir, "a.size");
+        blocked.mkdir();// a directory, so the sheet a can not be saved
+        get("set", "sheet=a&w=5&h=10&cell=A1&data=4");
+        get("set", "sheet=b&w=5&h=10&cell=A1&data=5");
+        get("set", "sheet=c&w=5&h=10&cell=A1&data=6");
+        assertEquals(3, server.size());// a is kept in memory, its edit is not lost
+        assertEquals("200:4.0", get("value", "sheet=a&cell=A1"));// b is evicted instead
+        assertEquals(2, server.size());
+        blocked.delete();
+        get("value", "sheet=c&cell=A1");
+        get("set", "sheet=d&cell=A1&data=7");// a is evicted again, and saved
+        assertEquals("5,10", Files.readString(blocked.toPath()));
+        assertEquals("200:4.0", get("value", "sheet=a&cell=A1"));
+    }
+
+    @Test
+    void testConcurrentOpen() throws Exception {
+        Thread[] clients = new Thread[10];
+        for (int i = 0; i < clients.length; i = i + 1) {
+            int row = i;
+            clients[i] = new Thread(() -> {
+                try {
+                    get("set", "sheet=n&w=5&h=10&cell=A" + row + "&data=" + row);// all the first uses of n
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            clients[i].start();
+        }
+        for (int i = 0; i < clients.length; i = i + 1) {
+            clients[i].join();
+        }
+        assertEquals("200:45.0", get("set", "sheet=n&cell=B0&data=" + enc("=sum(A0:A9)")));// one sheet was created for all of them
+    }
+
+    @Test
+    void testConcurrentWrites() throws Exception {
+        get("set", "sheet=a&w=5&h=10&cell=B0&data=" + enc("=sum(A0:A9)"));
+        Thread[] clients = new Thread[10];
+        for (int i = 0; i < clients.length; i = i + 1) {
+            int row = i;
+            clients[i] = new Thread(() -> {
+                try {
+                    get("set", "sheet=a&cell=A" + row + "&data=" + row);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            clients[i].start();
+        }
+        for (int i = 0; i < clients.length; i = i + 1) {
+            clients[i].join();
+        }
+        assertEquals("200:45.0", get("value", "sheet=a&cell=B0"));
+    }
+}
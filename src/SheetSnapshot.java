@@ -0,0 +1,212 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is an immutable view of the cells of a spreadsheet at one moment: their data, type and computed values.
+ * The cells are kept in tiles (a part of a column, CellStore.CHUNK rows), a new snapshot copies only the tiles of the cells
+ * which changed and shares all the others with the previous snapshot (copy on write).
+ * A snapshot is never changed after it was created, so any number of threads may read it without locking.
+ */
+public class SheetSnapshot {
+    public static final int TILE = CellStore.CHUNK;// The number of rows in a tile
+    private final int width, height;
+    private final int tilesPerColumn;
+    private final Tile[] tiles;// null for a tile without non empty cells
+
+    private static final class Tile {
+        final String[] data, value, eval;
+        final int[] type;
+
+        Tile(int rows) {
+            data = new String[rows];
+            value = new String[rows];
+            eval = new String[rows];
+            type = new int[rows];
+        }
+
+        Tile(Tile t) {
+            data = t.data.clone();
+            value = t.value.clone();
+            eval = t.eval.clone();
+            type = t.type.clone();
+        }
+    }
+
+    private SheetSnapshot(int width, int height, Tile[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.tilesPerColumn = (height - 1) / TILE + 1;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Takes a snapshot of all the cells of a sheet.
+     *
+     * @param sheet The sheet (it should not change while the snapshot is taken).
+     * @return The snapshot.
+     */
+    public static SheetSnapshot of(Ex2Sheet sheet) {
+        SheetSnapshot empty = new SheetSnapshot(sheet.width(), sheet.height(), new Tile[sheet.width() * ((sheet.height() - 1) / TILE + 1)]);
+        return empty.with(sheet, sheet.nonEmptyCells());
+    }
+
+    /**
+     * Takes a snapshot which differs from this one in the given cells, which are read again from the sheet.
+     *
+     * @param sheet The sheet (it should not change while the snapshot is taken).
+     * @param cells The coordinates of the changed cells, 2 ints {x, y} per cell.
+     * @return The new snapshot (this snapshot is not changed).
+     */
+    public SheetSnapshot with(Ex2Sheet sheet, int[] cells) {
+        Tile[] next = tiles.clone();
+        boolean[] copied = new boolean[next.length];// The tiles which belong to the new snapshot only
+        for (int i = 0; i < cells.length; i = i + 2) {
+            int x = cells[i], y = cells[i + 1];
+            int k = x * tilesPerColumn + y / TILE;
+            if (!copied[k]) {
+                next[k] = next[k] == null ? new Tile(Math.min(TILE, height - (y / TILE) * TILE)) : new Tile(next[k]);
+                copied[k] = true;
+            }
+            Cell c = sheet.get(x, y);
+            next[k].data[y % TILE] = c.getData();
+            next[k].type[y % TILE] = c.getType();
+            next[k].value[y % TILE] = sheet.value(x, y);
+            next[k].eval[y % TILE] = sheet.eval(x, y);
+        }
+        return new SheetSnapshot(width, height, next);
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Finds the cells whose data differs between this snapshot and another one of the same size.
+     * Only the tiles which are not shared by the two snapshots are compared, so a snapshot and its branches are compared
+     * in time proportional to their differences (and the number of tiles).
+     *
+     * @param other The other snapshot.
+     * @return The coordinates of the cells with a different data, 2 ints {x, y} per cell (column by column).
+     */
+    public int[] diff(SheetSnapshot other) {
+        int[] ans = new int[16];
+        int n = 0;
+        for (int k = 0; k < tiles.length; k = k + 1) {
+            if (tiles[k] == other.tiles[k]) {
+                continue;// Shared, the same cells
+            }
+            int x = k / tilesPerColumn, first = (k % tilesPerColumn) * TILE;
+            int rows = Math.min(TILE, height - first);
+            for (int i = 0; i < rows; i = i + 1) {
+                if (!data(x, first + i).equals(other.data(x, first + i))) {
+                    if (n + 2 > ans.length) {
+                        ans = Arrays.copyOf(ans, ans.length * 2);
+                    }
+                    ans[n++] = x;
+                    ans[n++] = first + i;
+                }
+            }
+        }
+        return Arrays.copyOf(ans, n);
+    }
+
+    /**
+     * Gets a copy of a cell, changing it does not change this snapshot.
+     *
+     * @param x The column index.
+     * @param y The row index.
+     * @return The cell, with its data and type.
+     */
+    public Cell get(int x, int y) {
+        SCell ans = new SCell(data(x, y), x, y);
+        ans.setType(type(x, y));
+        return ans;
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The data of the cell ("" for an empty cell).
+     */
+    public String data(int x, int y) {
+        Tile t = tiles[x * tilesPerColumn + y / TILE];
+        if (t == null || t.data[y % TILE] == null) {
+            return "";
+        }
+        return t.data[y % TILE];
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The type of the cell (as defined in Ex2Utils, TEXT for an empty cell).
+     */
+    public int type(int x, int y) {
+        Tile t = tiles[x * tilesPerColumn + y / TILE];
+        if (t == null || t.data[y % TILE] == null) {
+            return Ex2Utils.TEXT;
+        }
+        return t.type[y % TILE];
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The value of the cell, as Ex2Sheet.value(x, y) gave it when the snapshot was taken.
+     */
+    public String value(int x, int y) {
+        Tile t = tiles[x * tilesPerColumn + y / TILE];
+        if (t == null || t.data[y % TILE] == null) {
+            return "";
+        }
+        return t.value[y % TILE];
+    }
+
+    /**
+     * @param x The column index.
+     * @param y The row index.
+     * @return The evaluated cell, as Ex2Sheet.eval(x, y) gave it when the snapshot was taken.
+     */
+    public String eval(int x, int y) {
+        Tile t = tiles[x * tilesPerColumn + y / TILE];
+        if (t == null || t.data[y % TILE] == null) {
+            return "";
+        }
+        return t.eval[y % TILE];
+    }
+
+    /**
+     * Saves the cells of this snapshot in the format of Ex2Sheet.save.
+     *
+     * @param fileName The name of the file.
+     * @throws IOException If an error occurs while writing to the file.
+     */
+    public void save(String fileName) throws IOException {
+        FileWriter myWriter = new FileWriter(fileName);
+        myWriter.write("I2CS ArielU: SpreadSheet (Ex2) assignment - this line should be ignored in the load method\n");
+        for (int k = 0; k < tiles.length; k = k + 1) {// Column by column, as Ex2Sheet.save
+            Tile t = tiles[k];
+            if (t == null) {
+                continue;
+            }
+            int x = k / tilesPerColumn, first = (k % tilesPerColumn) * TILE;
+            for (int i = 0; i < t.data.length; i = i + 1) {
+                if (t.data[i] != null && !t.data[i].isEmpty()) {
+                    myWriter.write(x + "," + (first + i) + "," + t.data[i] + "\n");
+                }
+            }
+        }
+        myWriter.close();
+    }
+}
@@ -0,0 +1,204 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * This class stores the computed numeric values of the cells of a spreadsheet.
+ * The values are kept in primitive arrays (indexed by the cell index) with a bitmap of the cells that hold a value,
+ * so reading or writing a value does not box it or convert it to a String.
+ * The cells are split into pages of PAGE cells, a page is allocated when a cell in it first gets a value
+ * (so the empty regions of a sheet cost no memory), and is then reused by every recalculation.
+ * Different cells may be set concurrently (a page is installed and the bitmap words are updated atomically).
+ */
+public class ValueStore {
+    public static final int SHIFT = 12;// A cell is in page i >>> SHIFT
+    public static final int PAGE = 1 << SHIFT;// The number of cells in a page (a multiple of the 64 bits of a bitmap word)
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(Page[].class);
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+    private final int size;
+    private final Page[] pages;
+
+    private static final class Page {
+        final double[] values = new double[PAGE];
+        final long[] valid = new long[PAGE / 64];// bit i is set iff cell i holds a numeric value
+    }
+
+    /**
+     * Creates an empty value store.
+     *
+     * @param size The number of cells.
+     */
+    public ValueStore(int size) {
+        this.size = size;
+        pages = new Page[size / PAGE + 1];
+    }
+
+    /**
+     * @return The number of cells in this store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes the values of all cells (the pages are kept for the next recalculation).
+     */
+    public void clear() {
+        for (int p = 0; p < pages.length; p = p + 1) {
+            if (pages[p] != null) {
+                Arrays.fill(pages[p].valid, 0L);
+            }
+        }
+    }
+
+    /**
+     * Removes the value of a cell.
+     *
+     * @param i The index of the cell.
+     */
+    public void clear(int i) {
+        Page page = pages[i >>> SHIFT];
+        if (page != null) {
+            BITS.getAndBitwiseAnd(page.valid, (i & (PAGE - 1)) >>> 6, ~(1L << i));
+            page.values[i & (PAGE - 1)] = Double.NaN;
+        }
+    }
+
+    /**
+     * Sets the value of a cell.
+     *
+     * @param i The index of the cell.
+     * @param v The value.
+     */
+    public void set(int i, double v) {
+        Page page = pages[i >>> SHIFT];
+        if (page == null) {
+            Page created = new Page();
+            page = (Page) PAGES.compareAndExchange(pages, i >>> SHIFT, (Page) null, created);// Unless another thread did it first
+            if (page == null) {
+                page = created;
+            }
+        }
+        page.values[i & (PAGE - 1)] = v;
+        BITS.getAndBitwiseOr(page.valid, (i & (PAGE - 1)) >>> 6, 1L << i);
+    }
+
+    /**
+     * @param i The index of the cell.
+     * @return True iff the cell holds a numeric value.
+     */
+    public boolean has(int i) {
+        Page page = pages[i >>> SHIFT];
+        return page != null && (page.valid[(i & (PAGE - 1)) >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @param i The index of the cell.
+     * @return The value of the cell (only meaningful if has(i) is true).
+     */
+    public double get(int i) {
+        Page page = pages[i >>> SHIFT];
+        if (page == null) {
+            return 0;
+        }
+        return page.values[i & (PAGE - 1)];
+    }
+
+    /*
+     * The range kernels below reduce the values of the cells [from, to) (a part of a column, see Ex2Sheet) into an accumulator,
+     * one cell after the other in index order with a single accumulator, so the result is bit for bit that of a cell by cell loop.
+     * The cells without a value are skipped, a bitmap word without any value (or a page which was never allocated) is skipped at once.
+     * All of them walk the column in reduce, so they skip and order the cells the same way.
+     */
+
+    /**
+     * Adds the values of a part of a column to a sum.
+     *
+     * @param from The first cell index.
+     * @param to   The end cell index (exclusive).
+     * @param sum  The sum so far.
+     * @return The sum with the values added one by one.
+     */
+    public double sum(int from, int to, double sum) {
+        return reduce(1, from, to, sum);
+    }
+
+    /**
+     * Multiplies a product by the values of a part of a column.
+     *
+     * @param from    The first cell index.
+     * @param to      The end cell index (exclusive).
+     * @param product The product so far.
+     * @return The product multiplied by the values one by one.
+     */
+    public double product(int from, int to, double product) {
+        return reduce(5, from, to, product);
+    }
+
+    /**
+     * Finds the smallest value of a part of a column which is smaller than a given bound (NaN values are skipped).
+     *
+     * @param from The first cell index.
+     * @param to   The end cell index (exclusive).
+     * @param min  The bound (the result if there are no smaller values).
+     * @return The smallest value.
+     */
+    public double min(int from, int to, double min) {
+        return reduce(3, from, to, min);
+    }
+
+    /**
+     * Finds the biggest value of a part of a column which is bigger than a given bound (NaN values are skipped).
+     *
+     * @param from The first cell index.
+     * @param to   The end cell index (exclusive).
+     * @param max  The bound (the result if there are no bigger values).
+     * @return The biggest value.
+     */
+    public double max(int from, int to, double max) {
+        return reduce(4, from, to, max);
+    }
+
+    /**
+     * Reduces the values of a part of a column into an accumulator, one value after the other in index order.
+     *
+     * @param fn   The index of the function in Ex2Utils.FUNCTIONS: 1 (sum), 3 (min), 4 (max) or 5 (multiply).
+     * @param from The first cell index.
+     * @param to   The end cell index (exclusive).
+     * @param ans  The accumulator so far.
+     * @return The accumulator with the values of the cells folded in.
+     */
+    private double reduce(int fn, int from, int to, double ans) {
+        int i = from;
+        while (i < to) {
+            Page page = pages[i >>> SHIFT];
+            int end = next(i, to, page);
+            long word = page == null ? 0 : page.valid[(i & (PAGE - 1)) >>> 6];
+            if (word == 0) {
+                i = end;
+            }
+            for (; i < end; i = i + 1) {
+                if ((word & (1L << i)) != 0) {
+                    ans = combine(fn, ans, page.values[i & (PAGE - 1)]);
+                }
+            }
+        }
+        return ans;
+    }
+
+    private static double combine(int fn, double ans, double v) {// The same branch for every cell of a reduce, so it is well predicted
+        if (fn == 3) {
+            return v < ans ? v : ans;// Not Math.min: a NaN value is skipped
+        } else if (fn == 4) {
+            return v > ans ? v : ans;
+        } else if (fn == 5) {
+            return ans * v;
+        }
+        return ans + v;
+    }
+
+    private static int next(int i, int to, Page page) {// The end of the bitmap word of cell i (of its page, if it has none) or to
+        int left = page == null ? PAGE - (i & (PAGE - 1)) : 64 - (i & 63);
+        return i + Math.min(to - i, left);// Never beyond to, so it does not overflow
+    }
+}